@@ -17,11 +17,13 @@ package com.itworks.dbapi;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 /**
  * The type SQL Web API application.
  */
 @SpringBootApplication
+@EnableScheduling
 public class SQLAPIWebApplication {
 
     /**
@@ -15,22 +15,32 @@
  */
 package com.itworks.dbapi.controller;
 
+import com.itworks.dbapi.pojo.IngestionReport;
 import com.itworks.dbapi.pojo.SelectQueryMetaData;
+import com.itworks.dbapi.service.BulkIngestionService;
+import com.itworks.dbapi.service.CSVExportFileCache;
 import com.itworks.dbapi.service.DataAndCountFetchService;
+import com.itworks.dbapi.service.TableVersionService;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 import org.supercsv.io.CsvMapWriter;
 import org.supercsv.io.ICsvMapWriter;
 import org.supercsv.prefs.CsvPreference;
 
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.Charset;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Supplier;
 
 /**
  * The type CSV rest controller.
@@ -44,14 +54,24 @@ public class CSVRestController {
 
 
     private final DataAndCountFetchService dataAndCountFetchService;
+    private final TableVersionService tableVersionService;
+    private final CSVExportFileCache csvExportFileCache;
+    private final BulkIngestionService bulkIngestionService;
 
     /**
      * Instantiates a new CSV rest controller.
      *
      * @param dataAndCountFetchService the data and count fetch service
+     * @param tableVersionService      the table version service
+     * @param csvExportFileCache       the csv export file cache
+     * @param bulkIngestionService     the bulk ingestion service
      */
-    public CSVRestController(DataAndCountFetchService dataAndCountFetchService) {
+    public CSVRestController(DataAndCountFetchService dataAndCountFetchService, TableVersionService tableVersionService,
+                             CSVExportFileCache csvExportFileCache, BulkIngestionService bulkIngestionService) {
         this.dataAndCountFetchService = dataAndCountFetchService;
+        this.tableVersionService = tableVersionService;
+        this.csvExportFileCache = csvExportFileCache;
+        this.bulkIngestionService = bulkIngestionService;
     }
 
     /**
@@ -60,16 +80,39 @@ public class CSVRestController {
      * Send <i>skipHeaderRow=true</i> to skip column headers row in resultant
      * You also can filter the data by providing multiple query parameters like  ?COLUMN_NAME=columnValue&COLUMN_TWO=someValue
      * <i>limit</i> and <i>offset</i> in query parameters can be used to limit the data in response and do pagination
+     * Large tables can be exported in parallel with ?parallel=4 which scans 4 ranges of the integer <i>keyColumn</i> (ID by default) concurrently, rows with a NULL key come last.
+     * Rows are ordered by the key column unless <i>ordered=false</i> is passed. Parallel scan is not used together with <i>limit</i> or <i>offset</i>
+     * An ETag is returned for tables tracked in TABLE_VERSION, send it back in <i>If-None-Match</i> to get 304 when data is unchanged
+     * Exports of tracked tables are cached on disk until the table changes and support <i>Range</i> requests to resume downloads
      *
      * @param tableName  the table name
      * @param parameters the parameters
      * @return the table full data
      */
     @GetMapping("table-data/{tableName}")
-    public void getTableFullData(@PathVariable String tableName, @RequestParam Map<String, String> parameters, HttpServletResponse servletResponse) throws IOException {
-        List<LinkedHashMap> dataForTableWithSimpleFilter = dataAndCountFetchService.getDataForTableWithSimpleFilter(tableName, parameters);
+    public void getTableFullData(@PathVariable String tableName, @RequestParam Map<String, String> parameters, HttpServletRequest servletRequest, HttpServletResponse servletResponse, WebRequest webRequest) throws IOException {
+        String eTag = tableVersionService.getETagForTableData(tableName, parameters);
+        if (null != eTag && webRequest.checkNotModified(eTag)) {
+            return;
+        }
+        writeCachedDataToCSVResponse("table-data/" + tableName, eTag, parameters, servletRequest, servletResponse,
+                () -> dataAndCountFetchService.getDataForTableWithSimpleFilter(tableName, parameters));
+    }
 
-        writeDataToCSVResponse(parameters, servletResponse, dataForTableWithSimpleFilter);
+    /**
+     * Inserts CSV rows from the request body into the table.
+     * The first row must hold column names of the table, unknown columns reject the whole request.
+     * Rows are inserted in JDBC batches and committed in chunks, so a failed row does not roll back the rows before it.
+     * The returned report holds row counts and the failed row numbers with their error.
+     * PRE_DEFINED_SQL and TABLE_VERSION cannot be written this way, stored sql must not be insertable by api clients.
+     *
+     * @param tableName      the table name
+     * @param servletRequest the servlet request with CSV body
+     * @return the ingestion report
+     */
+    @PostMapping("table-data/{tableName}")
+    public IngestionReport insertTableData(@PathVariable String tableName, HttpServletRequest servletRequest) throws IOException {
+        return bulkIngestionService.ingestCSV(tableName, servletRequest.getReader());
     }
 
     /**
@@ -82,15 +125,22 @@ public class CSVRestController {
      * e.g. ?div=B&state=CA
      * Also, <i>limit</i> and <i>offset</i> in query parameters can be used to limit the data in response and do pagination
      * If query predicate for placeholder is not provided by user, default value will be assigned if given in PARAM_DEFAULT_VALUES column
+     * Sql ids having REFRESH_CRON are materialized on that schedule and requests without predicate parameters are served from the snapshot
+     * An ETag is returned when all SOURCE_TABLES of the sql id are tracked in TABLE_VERSION, send it back in <i>If-None-Match</i> to get 304
+     * Such exports are cached on disk until the data changes and support <i>Range</i> requests to resume downloads
      *
      * @param sqlId         the sql id
      * @param requestParams the request params as sql, sql text and key value pairs of parameters for place-holders in query
      * @return the table data from sql
      */
     @GetMapping("sql-id-data/{sqlId}")
-    public void getTableDataFromSQLId(@PathVariable String sqlId, @RequestParam Map<String, String> requestParams, HttpServletResponse servletResponse) throws IOException {
-        List<LinkedHashMap> dataForSQLId = dataAndCountFetchService.getDataForSQLId(sqlId, requestParams);
-        writeDataToCSVResponse(requestParams, servletResponse, dataForSQLId);
+    public void getTableDataFromSQLId(@PathVariable String sqlId, @RequestParam Map<String, String> requestParams, HttpServletRequest servletRequest, HttpServletResponse servletResponse, WebRequest webRequest) throws IOException {
+        String eTag = tableVersionService.getETagForSQLIdData(sqlId, requestParams);
+        if (null != eTag && webRequest.checkNotModified(eTag)) {
+            return;
+        }
+        writeCachedDataToCSVResponse("sql-id-data/" + sqlId, eTag, requestParams, servletRequest, servletResponse,
+                () -> dataAndCountFetchService.getDataForSQLId(sqlId, requestParams));
     }
 
     /**
@@ -152,10 +202,33 @@ public class CSVRestController {
         writeDataToCSVResponse(parameters, servletResponse, dataForSQLBuilder);
     }
 
+    /**
+     * Serves the export from the disk cache when it has a data version, the data is fetched only on cache miss.
+     */
+    private void writeCachedDataToCSVResponse(String resourcePath, String eTag, Map<String, String> parameters, HttpServletRequest servletRequest,
+                                              HttpServletResponse servletResponse, Supplier<List<LinkedHashMap>> resultDataSupplier) throws IOException {
+        if (null == eTag || !csvExportFileCache.isEnabled()) {
+            writeDataToCSVResponse(parameters, servletResponse, resultDataSupplier.get());
+            return;
+        }
+        setCSVResponseHeaders(parameters, servletResponse);
+        Charset charset = Charset.forName(servletResponse.getCharacterEncoding());
+        servletResponse.setCharacterEncoding(charset.name());
+        String cacheKey = resourcePath + "|" + eTag + "|" + new TreeMap<>(parameters) + "|" + charset.name();
+
+        if (!csvExportFileCache.serveIfCached(cacheKey, eTag, servletRequest, servletResponse)) {
+            List<LinkedHashMap> resultData = resultDataSupplier.get();
+            csvExportFileCache.renderAndServe(cacheKey, eTag, charset, writer -> writeCSV(parameters, writer, resultData), servletRequest, servletResponse);
+        }
+    }
+
     private void writeDataToCSVResponse(Map<String, String> parameters, HttpServletResponse servletResponse, List<LinkedHashMap> resultData) throws IOException {
+        setCSVResponseHeaders(parameters, servletResponse);
+        writeCSV(parameters, servletResponse.getWriter(), resultData);
+    }
+
+    private void setCSVResponseHeaders(Map<String, String> parameters, HttpServletResponse servletResponse) {
         String downloadFileName = parameters.get("fileName");
-        String addHeaderRowParam = parameters.get("skipHeaderRow");
-        boolean addHeaderRow = null == addHeaderRowParam || (!"Y".equalsIgnoreCase(addHeaderRowParam) && !"true".equalsIgnoreCase(addHeaderRowParam));
 
         if (null == downloadFileName) {
             downloadFileName = "table-data-" + LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMddHHmmSS")) + ".csv";
@@ -164,9 +237,13 @@ public class CSVRestController {
         }
         servletResponse.setContentType("text/csv");
         servletResponse.addHeader("Content-Disposition", "attachment; filename=\"" + downloadFileName + "\"");
+    }
 
+    private void writeCSV(Map<String, String> parameters, Writer writer, List<LinkedHashMap> resultData) throws IOException {
+        String addHeaderRowParam = parameters.get("skipHeaderRow");
+        boolean addHeaderRow = null == addHeaderRowParam || (!"Y".equalsIgnoreCase(addHeaderRowParam) && !"true".equalsIgnoreCase(addHeaderRowParam));
 
-        try (ICsvMapWriter csvMapWriter = new CsvMapWriter(servletResponse.getWriter(), CsvPreference.STANDARD_PREFERENCE)) {
+        try (ICsvMapWriter csvMapWriter = new CsvMapWriter(writer, CsvPreference.STANDARD_PREFERENCE)) {
             if (null != resultData && !resultData.isEmpty()) {
                 String[] headerRow = (String[]) resultData.stream().findFirst().get().keySet().stream().map(s -> s.toString()).toArray(String[]::new);
                 final String[] finalHeaderRow = headerRow;
@@ -184,7 +261,7 @@ public class CSVRestController {
                 });
             } else {
                 log.info("No data found for request data: {}", parameters);
-                servletResponse.getWriter().println("NO_DATA_FOUND");
+                writer.write("NO_DATA_FOUND" + System.lineSeparator());
             }
         }
     }
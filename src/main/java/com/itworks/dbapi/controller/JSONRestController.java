@@ -15,11 +15,17 @@
  */
 package com.itworks.dbapi.controller;
 
+import com.itworks.dbapi.pojo.IngestionReport;
 import com.itworks.dbapi.pojo.SelectQueryMetaData;
+import com.itworks.dbapi.service.BulkIngestionService;
 import com.itworks.dbapi.service.DataAndCountFetchService;
+import com.itworks.dbapi.service.TableVersionService;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 
+import javax.servlet.http.HttpServletRequest;
+import java.io.IOException;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -36,30 +42,61 @@ public class JSONRestController {
 
 
     private final DataAndCountFetchService dataAndCountFetchService;
+    private final TableVersionService tableVersionService;
+    private final BulkIngestionService bulkIngestionService;
 
     /**
      * Instantiates a new JSON rest controller.
      *
      * @param dataAndCountFetchService the data and count fetch service
+     * @param tableVersionService      the table version service
+     * @param bulkIngestionService     the bulk ingestion service
      */
-    public JSONRestController(DataAndCountFetchService dataAndCountFetchService) {
+    public JSONRestController(DataAndCountFetchService dataAndCountFetchService, TableVersionService tableVersionService,
+                              BulkIngestionService bulkIngestionService) {
         this.dataAndCountFetchService = dataAndCountFetchService;
+        this.tableVersionService = tableVersionService;
+        this.bulkIngestionService = bulkIngestionService;
     }
 
     /**
      * Gets table full data.
      * You also can filter the data by providing multiple query parameters like  ?COLUMN_NAME=columnValue&COLUMN_TWO=someValue
      * <i>limit</i> and <i>offset</i> in query parameters can be used to limit the data in response and do pagination
+     * Large tables can be exported in parallel with ?parallel=4 which scans 4 ranges of the integer <i>keyColumn</i> (ID by default) concurrently, rows with a NULL key come last.
+     * Rows are ordered by the key column unless <i>ordered=false</i> is passed. Parallel scan is not used together with <i>limit</i> or <i>offset</i>
+     * An ETag is returned for tables tracked in TABLE_VERSION, send it back in <i>If-None-Match</i> to get 304 when data is unchanged
      *
      * @param tableName  the table name
      * @param parameters the parameters
+     * @param webRequest the web request
      * @return the table full data
      */
     @GetMapping("table-data/{tableName}")
-    public List getTableFullData(@PathVariable String tableName, @RequestParam Map<String, String> parameters) {
+    public List getTableFullData(@PathVariable String tableName, @RequestParam Map<String, String> parameters, WebRequest webRequest) {
+        String eTag = tableVersionService.getETagForTableData(tableName, parameters);
+        if (null != eTag && webRequest.checkNotModified(eTag)) {
+            return null;
+        }
         return dataAndCountFetchService.getDataForTableWithSimpleFilter(tableName, parameters);
     }
 
+    /**
+     * Inserts NDJSON rows from the request body into the table, one JSON object per line like {"NAME":"Pune","STATE":"MH"}
+     * Rows having columns unknown to the table are reported as failed.
+     * Rows are inserted in JDBC batches and committed in chunks, so a failed row does not roll back the rows before it.
+     * The returned report holds row counts and the failed line numbers with their error.
+     * PRE_DEFINED_SQL and TABLE_VERSION cannot be written this way, stored sql must not be insertable by api clients.
+     *
+     * @param tableName      the table name
+     * @param servletRequest the servlet request with NDJSON body
+     * @return the ingestion report
+     */
+    @PostMapping("table-data/{tableName}")
+    public IngestionReport insertTableData(@PathVariable String tableName, HttpServletRequest servletRequest) throws IOException {
+        return bulkIngestionService.ingestNDJSON(tableName, servletRequest.getReader());
+    }
+
     /**
      * Gets table data from sql_id predefined in database.
      * Pass below parameters as query parameters:
@@ -67,13 +104,20 @@ public class JSONRestController {
      * e.g. ?div=B&state=CA
      * Also, <i>limit</i> and <i>offset</i> in query parameters can be used to limit the data in response and do pagination
      * If query predicate for placeholder is not provided by user, default value will be assigned if given in PARAM_DEFAULT_VALUES column
+     * Sql ids having REFRESH_CRON are materialized on that schedule and requests without predicate parameters are served from the snapshot
+     * An ETag is returned when all SOURCE_TABLES of the sql id are tracked in TABLE_VERSION, send it back in <i>If-None-Match</i> to get 304
      *
      * @param sqlId         the sql id
      * @param requestParams the request params as sql, sql text and key value pairs of parameters for place-holders in query
+     * @param webRequest    the web request
      * @return the table data from sql
      */
     @GetMapping("sql-id-data/{sqlId}")
-    public List getTableDataFromSQLId(@PathVariable String sqlId, @RequestParam Map<String, String> requestParams) {
+    public List getTableDataFromSQLId(@PathVariable String sqlId, @RequestParam Map<String, String> requestParams, WebRequest webRequest) {
+        String eTag = tableVersionService.getETagForSQLIdData(sqlId, requestParams);
+        if (null != eTag && webRequest.checkNotModified(eTag)) {
+            return null;
+        }
         return dataAndCountFetchService.getDataForSQLId(sqlId, requestParams);
     }
 
@@ -1,11 +1,14 @@
 package com.itworks.dbapi.mapper;
 
 import com.itworks.dbapi.pojo.SelectQueryMetaData;
+import com.itworks.dbapi.sqlbuilder.GenericInsertBuilder;
 import com.itworks.dbapi.sqlbuilder.GenericSelectBuilder;
+import org.apache.ibatis.annotations.InsertProvider;
 import org.apache.ibatis.annotations.Mapper;
 import org.apache.ibatis.annotations.Param;
 import org.apache.ibatis.annotations.Select;
 import org.apache.ibatis.annotations.SelectProvider;
+import org.apache.ibatis.annotations.Update;
 
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -35,6 +38,48 @@ public interface GenericMapper {
     @Select("select PARAM_DEFAULT_VALUES from PRE_DEFINED_SQL t where SQL_ID = #{sqlId}")
     String getSQLParameterDefaultValuesForSQLId(@Param("sqlId") String sqlId);
 
+    /**
+     * Select comma separated tables read by the sql of every sql id having SOURCE_TABLES.
+     *
+     * @return the list of SQL_ID and SOURCE_TABLES rows
+     */
+    @Select("select SQL_ID, SOURCE_TABLES from PRE_DEFINED_SQL where SOURCE_TABLES is not null")
+    List<LinkedHashMap> selectSQLIdSourceTables();
+
+    /**
+     * Select active sql ids to be materialized along with their REFRESH_CRON.
+     *
+     * @return the list of SQL_ID and REFRESH_CRON rows
+     */
+    @Select("select SQL_ID, REFRESH_CRON from PRE_DEFINED_SQL where REFRESH_CRON is not null and IS_ACTIVE = 'Y'")
+    List<LinkedHashMap> selectMaterializedSQLIds();
+
+    /**
+     * Gets REFRESH_CRON of sql id if it is active.
+     *
+     * @param sqlId the sql id
+     * @return the refresh cron or null when sql id is inactive or not materialized
+     */
+    @Select("select REFRESH_CRON from PRE_DEFINED_SQL where SQL_ID = #{sqlId} and IS_ACTIVE = 'Y'")
+    String getRefreshCronForActiveSQLId(@Param("sqlId") String sqlId);
+
+    /**
+     * Select versions of all tracked tables.
+     *
+     * @return the list of TABLE_NAME and VERSION rows
+     */
+    @Select("select TABLE_NAME, VERSION from TABLE_VERSION")
+    List<LinkedHashMap> selectTableVersions();
+
+    /**
+     * Increment version of table.
+     *
+     * @param tableName the table name
+     * @return the number of rows updated
+     */
+    @Update("update TABLE_VERSION set VERSION = VERSION + 1 where upper(TABLE_NAME) = upper(#{tableName})")
+    int incrementTableVersion(@Param("tableName") String tableName);
+
     /**
      * Gets all table data with simple filter.
      *
@@ -45,6 +90,42 @@ public interface GenericMapper {
     @SelectProvider(type = GenericSelectBuilder.class, method = "selectAllTableDataWithSimpleFilter")
     List<LinkedHashMap> getAllTableDataWithSimpleFilter(String tableName, Map<String, String> parameters);
 
+    /**
+     * Select min and max value of the key column of a table as MIN_KEY and MAX_KEY.
+     *
+     * @param tableName the table name
+     * @param keyColumn the key column
+     * @return the key bounds
+     */
+    @Select("select min(${keyColumn}) as MIN_KEY, max(${keyColumn}) as MAX_KEY from ${tableName}")
+    LinkedHashMap selectKeyBoundsForTable(@Param("tableName") String tableName, @Param("keyColumn") String keyColumn);
+
+    /**
+     * Gets table data with simple filter for one half-open key range, ordered by the key column.
+     *
+     * @param tableName  the table name
+     * @param parameters the parameters
+     * @param keyColumn  the key column
+     * @param lowerBound the inclusive lower bound
+     * @param upperBound the exclusive upper bound, null for no upper bound
+     * @return the table data for key range
+     */
+    @SelectProvider(type = GenericSelectBuilder.class, method = "selectTableDataForKeyRangeWithSimpleFilter")
+    List<LinkedHashMap> getTableDataForKeyRangeWithSimpleFilter(@Param("tableName") String tableName, @Param("parameters") Map<String, String> parameters,
+                                                                @Param("keyColumn") String keyColumn, @Param("lowerBound") long lowerBound, @Param("upperBound") Long upperBound);
+
+    /**
+     * Gets table data with simple filter having a NULL key column.
+     *
+     * @param tableName  the table name
+     * @param parameters the parameters
+     * @param keyColumn  the key column
+     * @return the table data with NULL key
+     */
+    @SelectProvider(type = GenericSelectBuilder.class, method = "selectTableDataForNullKeyWithSimpleFilter")
+    List<LinkedHashMap> getTableDataForNullKeyWithSimpleFilter(@Param("tableName") String tableName, @Param("parameters") Map<String, String> parameters,
+                                                               @Param("keyColumn") String keyColumn);
+
     /**
      * Select with given sql list.
      *
@@ -82,4 +163,23 @@ public interface GenericMapper {
     @SelectProvider(type = GenericSelectBuilder.class, method = "selectTableDataCountOnlyWithFilter")
     long selectCountFromPostWithSelectedColumns(SelectQueryMetaData filter);
 
+    /**
+     * Gets column names of table in the current schema from database metadata.
+     *
+     * @param tableName the table name
+     * @return the column names
+     */
+    @Select("select COLUMN_NAME from INFORMATION_SCHEMA.COLUMNS where TABLE_SCHEMA = CURRENT_SCHEMA and upper(TABLE_NAME) = upper(#{tableName})")
+    List<String> getColumnNamesForTable(@Param("tableName") String tableName);
+
+    /**
+     * Insert table row.
+     *
+     * @param tableName the table name
+     * @param row       the column values of the row
+     * @return the number of rows inserted
+     */
+    @InsertProvider(type = GenericInsertBuilder.class, method = "insertTableRow")
+    int insertTableRow(@Param("tableName") String tableName, @Param("row") Map<String, Object> row);
+
 }
@@ -0,0 +1,14 @@
+package com.itworks.dbapi.pojo;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class IngestionErrorRow {
+    private long rowNumber;
+    private String message;
+
+}
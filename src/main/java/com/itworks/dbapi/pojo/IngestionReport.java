@@ -0,0 +1,20 @@
+package com.itworks.dbapi.pojo;
+
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@Data
+public class IngestionReport {
+    private String tableName;
+    private long rowsRead;
+    private long rowsInserted;
+    private long rowsFailed;
+    private long chunksCommitted;
+    private long elapsedMillis;
+
+    private List<IngestionErrorRow> errorRows = new ArrayList<>();
+    private boolean errorRowsTruncated;
+
+}
@@ -0,0 +1,17 @@
+package com.itworks.dbapi.pojo;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+
+@Data
+@AllArgsConstructor
+public class SQLSnapshot {
+    private String sqlId;
+    private List<LinkedHashMap> resultData;
+    private long refreshedAtMillis;
+    private String sourceVersion;
+
+}
@@ -0,0 +1,299 @@
+package com.itworks.dbapi.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.itworks.dbapi.mapper.GenericMapper;
+import com.itworks.dbapi.pojo.IngestionErrorRow;
+import com.itworks.dbapi.pojo.IngestionReport;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.ibatis.exceptions.PersistenceException;
+import org.apache.ibatis.session.ExecutorType;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.mybatis.spring.SqlSessionTemplate;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.NestedExceptionUtils;
+import org.springframework.dao.DataAccessException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.supercsv.exception.SuperCsvException;
+import org.supercsv.io.CsvMapReader;
+import org.supercsv.io.ICsvMapReader;
+import org.supercsv.prefs.CsvPreference;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The type Bulk ingestion service.
+ * Streams CSV or NDJSON rows into a table with JDBC batches, committing every chunk in its own transaction
+ * so memory stays constant whatever the size of the input.
+ * TABLE_VERSION is incremented in a separate short transaction after each chunk, so concurrent ingestions into
+ * one table only wait for each other on that single row update, not for whole chunks.
+ */
+@Service
+@Slf4j
+public class BulkIngestionService {
+
+    private static final int MAX_REPORTED_ERROR_ROWS = 100;
+    /**
+     * Tables never written through ingestion: PRE_DEFINED_SQL holds sql run by the api and TABLE_VERSION is maintained by triggers.
+     */
+    private static final Set<String> PROTECTED_TABLES = Collections.unmodifiableSet(new HashSet<>(Arrays.asList("PRE_DEFINED_SQL", "TABLE_VERSION")));
+    private static final TypeReference<LinkedHashMap<String, Object>> JSON_ROW_TYPE = new TypeReference<LinkedHashMap<String, Object>>() {
+    };
+
+    private final GenericMapper genericMapper;
+    private final SqlSessionTemplate batchSqlSessionTemplate;
+    private final GenericMapper batchMapper;
+    private final TransactionTemplate transactionTemplate;
+    private final TableVersionService tableVersionService;
+    private final ObjectMapper objectMapper;
+    private final int batchSize;
+    private final int chunkSize;
+
+    /**
+     * Instantiates a new Bulk ingestion service.
+     *
+     * @param genericMapper       the generic mapper
+     * @param sqlSessionFactory   the sql session factory
+     * @param transactionManager  the transaction manager
+     * @param tableVersionService the table version service
+     * @param objectMapper        the object mapper
+     * @param batchSize           the rows sent to the database in one JDBC batch
+     * @param chunkSize           the rows committed in one transaction
+     */
+    public BulkIngestionService(GenericMapper genericMapper, SqlSessionFactory sqlSessionFactory, PlatformTransactionManager transactionManager,
+                                TableVersionService tableVersionService, ObjectMapper objectMapper,
+                                @Value("${dbapi.ingest.batch-size:500}") int batchSize, @Value("${dbapi.ingest.chunk-size:5000}") int chunkSize) {
+        if (batchSize < 1 || chunkSize < 1) {
+            throw new IllegalArgumentException("dbapi.ingest.batch-size and dbapi.ingest.chunk-size must be greater than 0.");
+        }
+        this.genericMapper = genericMapper;
+        this.batchSqlSessionTemplate = new SqlSessionTemplate(sqlSessionFactory, ExecutorType.BATCH);
+        this.batchMapper = batchSqlSessionTemplate.getMapper(GenericMapper.class);
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.tableVersionService = tableVersionService;
+        this.objectMapper = objectMapper;
+        this.batchSize = batchSize;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Ingests CSV rows into table. The first row must hold column names of the table.
+     *
+     * @param tableName the table name
+     * @param reader    the CSV reader
+     * @return the ingestion report
+     * @throws IOException the io exception
+     */
+    public IngestionReport ingestCSV(String tableName, Reader reader) throws IOException {
+        Map<String, String> tableColumns = getTableColumns(tableName);
+        ChunkedInserter inserter = new ChunkedInserter(tableName);
+
+        try (ICsvMapReader csvMapReader = new CsvMapReader(reader, CsvPreference.STANDARD_PREFERENCE)) {
+            String[] headerRow = csvMapReader.getHeader(true);
+            if (null == headerRow) {
+                throw new IllegalArgumentException("CSV header row with column names is required.");
+            }
+            String[] columnNames = new String[headerRow.length];
+            List<String> unknownColumns = new ArrayList<>();
+            for (int i = 0; i < headerRow.length; i++) {
+                columnNames[i] = null == headerRow[i] ? null : tableColumns.get(headerRow[i].trim().toUpperCase(Locale.ROOT));
+                if (null == columnNames[i]) {
+                    unknownColumns.add(headerRow[i]);
+                }
+            }
+            if (!unknownColumns.isEmpty()) {
+                throw new IllegalArgumentException("Unknown columns " + unknownColumns + " for table " + tableName);
+            }
+
+            while (true) {
+                Map<String, String> csvRow;
+                try {
+                    csvRow = csvMapReader.read(columnNames);
+                } catch (SuperCsvException e) {
+                    inserter.rejectRow(csvMapReader.getRowNumber(), e.getMessage());
+                    continue;
+                }
+                if (null == csvRow) {
+                    break;
+                }
+                inserter.addRow(csvMapReader.getRowNumber(), new LinkedHashMap<>(csvRow));
+            }
+        }
+        return inserter.finish();
+    }
+
+    /**
+     * Ingests NDJSON rows into table, one JSON object per line with column names as keys.
+     *
+     * @param tableName the table name
+     * @param reader    the NDJSON reader
+     * @return the ingestion report
+     * @throws IOException the io exception
+     */
+    public IngestionReport ingestNDJSON(String tableName, Reader reader) throws IOException {
+        Map<String, String> tableColumns = getTableColumns(tableName);
+        ChunkedInserter inserter = new ChunkedInserter(tableName);
+
+        try (BufferedReader lineReader = new BufferedReader(reader)) {
+            long lineNumber = 0;
+            String line;
+            while (null != (line = lineReader.readLine())) {
+                lineNumber++;
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+                Map<String, Object> jsonRow;
+                try {
+                    jsonRow = objectMapper.readValue(line, JSON_ROW_TYPE);
+                } catch (JsonProcessingException e) {
+                    inserter.rejectRow(lineNumber, "Invalid JSON object: " + e.getOriginalMessage());
+                    continue;
+                }
+
+                Map<String, Object> row = new LinkedHashMap<>();
+                List<String> unknownColumns = new ArrayList<>();
+                for (Map.Entry<String, Object> entry : jsonRow.entrySet()) {
+                    String columnName = tableColumns.get(entry.getKey().trim().toUpperCase(Locale.ROOT));
+                    if (null == columnName) {
+                        unknownColumns.add(entry.getKey());
+                    } else {
+                        row.put(columnName, entry.getValue());
+                    }
+                }
+                if (!unknownColumns.isEmpty()) {
+                    inserter.rejectRow(lineNumber, "Unknown columns " + unknownColumns + " for table " + tableName);
+                } else if (row.isEmpty()) {
+                    inserter.rejectRow(lineNumber, "No column values in row");
+                } else {
+                    inserter.addRow(lineNumber, row);
+                }
+            }
+        }
+        return inserter.finish();
+    }
+
+    /**
+     * Gets table columns from metadata keyed by upper case column name.
+     */
+    private Map<String, String> getTableColumns(String tableName) {
+        if (PROTECTED_TABLES.contains(tableName.trim().toUpperCase(Locale.ROOT))) {
+            throw new IllegalArgumentException("Ingestion into table " + tableName + " is not allowed.");
+        }
+        List<String> columnNames = genericMapper.getColumnNamesForTable(tableName);
+        if (null == columnNames || columnNames.isEmpty()) {
+            throw new IllegalArgumentException("Unknown table " + tableName);
+        }
+        Map<String, String> tableColumns = new LinkedHashMap<>();
+        for (String columnName : columnNames) {
+            tableColumns.put(columnName.toUpperCase(Locale.ROOT), columnName);
+        }
+        return tableColumns;
+    }
+
+    private void insertRows(String tableName, List<Map<String, Object>> rows) {
+        int pendingRows = 0;
+        for (Map<String, Object> row : rows) {
+            batchMapper.insertTableRow(tableName, row);
+            if (++pendingRows == batchSize) {
+                batchSqlSessionTemplate.flushStatements();
+                pendingRows = 0;
+            }
+        }
+        batchSqlSessionTemplate.flushStatements();
+    }
+
+    /**
+     * Buffers at most one chunk of rows, so a failed chunk can be retried row by row to find the error rows.
+     */
+    private class ChunkedInserter {
+        private final String tableName;
+        private final IngestionReport report = new IngestionReport();
+        private final List<Map<String, Object>> chunkRows = new ArrayList<>();
+        private final List<Long> chunkRowNumbers = new ArrayList<>();
+        private final long startMillis = System.currentTimeMillis();
+
+        ChunkedInserter(String tableName) {
+            this.tableName = tableName;
+            report.setTableName(tableName);
+        }
+
+        void addRow(long rowNumber, Map<String, Object> row) {
+            report.setRowsRead(report.getRowsRead() + 1);
+            chunkRows.add(row);
+            chunkRowNumbers.add(rowNumber);
+            if (chunkRows.size() >= chunkSize) {
+                insertChunk();
+            }
+        }
+
+        void rejectRow(long rowNumber, String message) {
+            report.setRowsRead(report.getRowsRead() + 1);
+            addErrorRow(rowNumber, message);
+        }
+
+        IngestionReport finish() {
+            insertChunk();
+            report.setElapsedMillis(System.currentTimeMillis() - startMillis);
+            log.info("Ingestion into {} done: {} rows read, {} inserted, {} failed in {} ms", tableName,
+                    report.getRowsRead(), report.getRowsInserted(), report.getRowsFailed(), report.getElapsedMillis());
+            return report;
+        }
+
+        private void insertChunk() {
+            if (chunkRows.isEmpty()) {
+                return;
+            }
+            long rowsInsertedBefore = report.getRowsInserted();
+            try {
+                transactionTemplate.executeWithoutResult(status -> insertRows(tableName, chunkRows));
+                report.setRowsInserted(report.getRowsInserted() + chunkRows.size());
+                report.setChunksCommitted(report.getChunksCommitted() + 1);
+            } catch (DataAccessException | PersistenceException e) {
+                log.warn("Chunk of {} rows into {} failed, retrying its rows one by one: {}", chunkRows.size(), tableName,
+                        NestedExceptionUtils.getMostSpecificCause(e).getMessage());
+                for (int i = 0; i < chunkRows.size(); i++) {
+                    List<Map<String, Object>> singleRow = Collections.singletonList(chunkRows.get(i));
+                    try {
+                        transactionTemplate.executeWithoutResult(status -> insertRows(tableName, singleRow));
+                        report.setRowsInserted(report.getRowsInserted() + 1);
+                    } catch (DataAccessException | PersistenceException rowException) {
+                        addErrorRow(chunkRowNumbers.get(i), NestedExceptionUtils.getMostSpecificCause(rowException).getMessage());
+                    }
+                }
+            }
+            chunkRows.clear();
+            chunkRowNumbers.clear();
+            if (report.getRowsInserted() > rowsInsertedBefore) {
+                // rows of this chunk are committed, cached ETags must not outlive them even if the rest of the input fails
+                // tables written by ingestion have no version trigger, this is their only version change
+                tableVersionService.bumpVersion(tableName);
+            }
+            log.info("Ingestion into {} in progress: {} rows read, {} inserted, {} failed", tableName,
+                    report.getRowsRead(), report.getRowsInserted(), report.getRowsFailed());
+        }
+
+        private void addErrorRow(long rowNumber, String message) {
+            report.setRowsFailed(report.getRowsFailed() + 1);
+            if (report.getErrorRows().size() < MAX_REPORTED_ERROR_ROWS) {
+                report.getErrorRows().add(new IngestionErrorRow(rowNumber, message));
+            } else {
+                report.setErrorRowsTruncated(true);
+            }
+        }
+    }
+
+}
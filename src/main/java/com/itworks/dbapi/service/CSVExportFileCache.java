@@ -0,0 +1,438 @@
+package com.itworks.dbapi.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * The type CSV export file cache.
+ * Keeps rendered CSV exports on local disk keyed by query and data version, so repeated downloads
+ * are sent from the file without touching the database, with Tomcat's sendfile where the connector supports it.
+ * Single byte ranges are supported for resumable downloads. Least recently used files are
+ * deleted once the total size goes over the configured budget.
+ */
+@Component
+@Slf4j
+public class CSVExportFileCache {
+
+    private static final String INSTANCE_DIRECTORY_PREFIX = "instance-";
+    private static final String RENDER_FILE_PREFIX = "render-";
+    private static final String RENDER_FILE_SUFFIX = ".tmp";
+    private static final Pattern CACHE_FILE_NAME = Pattern.compile("[0-9a-f]{64}\\.csv");
+    private static final Pattern RENDER_FILE_NAME = Pattern.compile("render-[0-9]+\\.tmp");
+    /**
+     * Locked for the lifetime of the instance owning the directory.
+     */
+    private static final String LOCK_FILE_NAME = ".lock";
+    private static final int LOCK_ATTEMPTS = 10;
+    private static final long LOCK_RETRY_MILLIS = 100;
+    /**
+     * Directories younger than this may belong to an instance which has not locked them yet.
+     */
+    private static final long STARTUP_GRACE_MILLIS = 60_000;
+    /**
+     * Directories locked by this JVM. They are never opened by another channel here, closing it would release
+     * the lock of the owning channel on some systems.
+     */
+    private static final Set<Path> LOCKED_DIRECTORIES = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Request attributes of Tomcat's sendfile support, the connector then copies the file to the socket in the kernel.
+     */
+    static final String SENDFILE_SUPPORT_ATTR = "org.apache.tomcat.sendfile.support";
+    static final String SENDFILE_FILENAME_ATTR = "org.apache.tomcat.sendfile.filename";
+    static final String SENDFILE_START_ATTR = "org.apache.tomcat.sendfile.start";
+    static final String SENDFILE_END_ATTR = "org.apache.tomcat.sendfile.end";
+    /**
+     * Smaller files are written to the response directly, like Tomcat's DefaultServlet does.
+     */
+    static final long MIN_SENDFILE_BYTES = 48 * 1024;
+
+    private final Path cacheDirectory;
+    private final long maxCacheBytes;
+
+    /**
+     * Cached file sizes by file name, in access order for eviction.
+     */
+    private final LinkedHashMap<String, Long> cachedFileSizes = new LinkedHashMap<>(16, 0.75f, true);
+    private long cachedBytes;
+    private FileChannel instanceLockChannel;
+
+    /**
+     * The interface Export renderer.
+     */
+    @FunctionalInterface
+    public interface ExportRenderer {
+        /**
+         * Renders the export.
+         *
+         * @param writer the writer
+         * @throws IOException the io exception
+         */
+        void render(Writer writer) throws IOException;
+    }
+
+    /**
+     * Instantiates a new CSV export file cache.
+     * Files are kept in a subdirectory of <i>cacheDirectory</i> per instance, so instances sharing a host do not touch each other's files.
+     * The size budget applies to each instance.
+     *
+     * @param cacheDirectory the cache directory
+     * @param maxCacheSize   the max total size of cached files, 0 disables the cache
+     * @param instanceId     the instance id naming the subdirectory, process id when not set
+     */
+    public CSVExportFileCache(@Value("${dbapi.csv-cache.directory:${java.io.tmpdir}/dbapi-csv-cache}") String cacheDirectory,
+                              @Value("${dbapi.csv-cache.max-size:1GB}") DataSize maxCacheSize,
+                              @Value("${dbapi.csv-cache.instance-id:}") String instanceId) {
+        if (null == instanceId || instanceId.trim().isEmpty()) {
+            // "pid@host" on the JVMs we run on, Java 8 has no ProcessHandle
+            instanceId = ManagementFactory.getRuntimeMXBean().getName().split("@")[0];
+        }
+        this.cacheDirectory = Paths.get(cacheDirectory).toAbsolutePath().normalize().resolve(INSTANCE_DIRECTORY_PREFIX + instanceId.replaceAll("[^A-Za-z0-9._-]", "_"));
+        this.maxCacheBytes = maxCacheSize.toBytes();
+    }
+
+    /**
+     * Creates and locks the cache directory of this instance and deletes cache files found in it, which only happens when
+     * the instance id of a stopped instance is reused. Directories of other instances which are no longer running
+     * are removed, their lock was released by the operating system even if the process was killed.
+     *
+     * @throws IOException the io exception
+     */
+    @PostConstruct
+    public void initCacheDirectory() throws IOException {
+        if (!isEnabled()) {
+            return;
+        }
+        lockCacheDirectory();
+        deleteCacheFiles(cacheDirectory);
+        removeAbandonedInstanceDirectories();
+        log.info("CSV export cache at {} with budget of {} bytes", cacheDirectory, maxCacheBytes);
+    }
+
+    /**
+     * Removes cache files of this instance and its directory if nothing else is left in it.
+     *
+     * @throws IOException the io exception
+     */
+    @PreDestroy
+    public void removeCacheDirectory() throws IOException {
+        if (!isEnabled() || null == instanceLockChannel) {
+            return;
+        }
+        synchronized (this) {
+            cachedFileSizes.clear();
+            cachedBytes = 0;
+        }
+        deleteCacheFiles(cacheDirectory);
+        removeDirectory(cacheDirectory);
+        instanceLockChannel.close();
+        instanceLockChannel = null;
+        LOCKED_DIRECTORIES.remove(cacheDirectory);
+    }
+
+    private void lockCacheDirectory() throws IOException {
+        if (!LOCKED_DIRECTORIES.add(cacheDirectory)) {
+            throw new IllegalStateException("CSV export cache directory " + cacheDirectory
+                    + " is used by a running instance, set a distinct dbapi.csv-cache.instance-id");
+        }
+        Path lockFile = cacheDirectory.resolve(LOCK_FILE_NAME);
+        try {
+            for (int attempt = 0; attempt < LOCK_ATTEMPTS; attempt++) {
+                Files.createDirectories(cacheDirectory);
+                FileChannel lockChannel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                // the lock file may have been removed by an instance cleaning up this directory meanwhile
+                if (null != tryLock(lockChannel) && Files.exists(lockFile)) {
+                    instanceLockChannel = lockChannel;
+                    return;
+                }
+                lockChannel.close();
+                Thread.sleep(LOCK_RETRY_MILLIS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            LOCKED_DIRECTORIES.remove(cacheDirectory);
+            throw e;
+        }
+        LOCKED_DIRECTORIES.remove(cacheDirectory);
+        throw new IllegalStateException("CSV export cache directory " + cacheDirectory
+                + " is used by a running instance, set a distinct dbapi.csv-cache.instance-id");
+    }
+
+    private void removeAbandonedInstanceDirectories() throws IOException {
+        long abandonedBeforeMillis = System.currentTimeMillis() - STARTUP_GRACE_MILLIS;
+        try (DirectoryStream<Path> instanceDirectories = Files.newDirectoryStream(cacheDirectory.getParent(), INSTANCE_DIRECTORY_PREFIX + "*")) {
+            for (Path instanceDirectory : instanceDirectories) {
+                if (LOCKED_DIRECTORIES.contains(instanceDirectory) || !Files.isDirectory(instanceDirectory)) {
+                    continue;
+                }
+                Path lockFile = instanceDirectory.resolve(LOCK_FILE_NAME);
+                // an instance which just created its directory has not locked it yet
+                Path createdFile = Files.exists(lockFile) ? lockFile : instanceDirectory;
+                if (Files.getLastModifiedTime(createdFile).toMillis() > abandonedBeforeMillis) {
+                    continue;
+                }
+                removeAbandonedInstanceDirectory(instanceDirectory, lockFile);
+            }
+        }
+    }
+
+    private void removeAbandonedInstanceDirectory(Path instanceDirectory, Path lockFile) {
+        try {
+            if (Files.exists(lockFile)) {
+                try (FileChannel lockChannel = FileChannel.open(lockFile, StandardOpenOption.WRITE)) {
+                    if (null == tryLock(lockChannel)) {
+                        return;
+                    }
+                    // removed while locked, an instance reusing the id then locks a new lock file
+                    deleteCacheFiles(instanceDirectory);
+                    removeDirectory(instanceDirectory);
+                }
+            } else {
+                deleteCacheFiles(instanceDirectory);
+                removeDirectory(instanceDirectory);
+            }
+            log.info("Removed CSV export cache files of stopped instance at {}", instanceDirectory);
+        } catch (IOException e) {
+            log.warn("Could not remove CSV export cache directory {} of stopped instance: {}", instanceDirectory, e.getMessage());
+        }
+    }
+
+    private static FileLock tryLock(FileChannel lockChannel) throws IOException {
+        try {
+            return lockChannel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            // locked by this JVM
+            return null;
+        }
+    }
+
+    private static void removeDirectory(Path directory) throws IOException {
+        Files.deleteIfExists(directory.resolve(LOCK_FILE_NAME));
+        try {
+            Files.deleteIfExists(directory);
+        } catch (DirectoryNotEmptyException e) {
+            log.warn("CSV export cache directory {} is not empty, keeping it", directory);
+        }
+    }
+
+    private static void deleteCacheFiles(Path directory) throws IOException {
+        try (DirectoryStream<Path> cacheFiles = Files.newDirectoryStream(directory)) {
+            for (Path cacheFile : cacheFiles) {
+                String fileName = cacheFile.getFileName().toString();
+                if (CACHE_FILE_NAME.matcher(fileName).matches() || RENDER_FILE_NAME.matcher(fileName).matches()) {
+                    Files.deleteIfExists(cacheFile);
+                }
+            }
+        }
+    }
+
+    /**
+     * Is enabled boolean.
+     *
+     * @return true if cache has a disk budget
+     */
+    public boolean isEnabled() {
+        return maxCacheBytes > 0;
+    }
+
+    /**
+     * Serves export from cached file if present.
+     *
+     * @param cacheKey        the cache key describing query, data version and rendering options
+     * @param eTag            the ETag of the export, used for If-Range
+     * @param servletRequest  the servlet request
+     * @param servletResponse the servlet response
+     * @return true if served from cache
+     * @throws IOException the io exception
+     */
+    public boolean serveIfCached(String cacheKey, String eTag, HttpServletRequest servletRequest, HttpServletResponse servletResponse) throws IOException {
+        String fileName = toFileName(cacheKey);
+        synchronized (this) {
+            if (null == cachedFileSizes.get(fileName)) {
+                return false;
+            }
+        }
+        FileChannel fileChannel;
+        try {
+            fileChannel = FileChannel.open(cacheDirectory.resolve(fileName), StandardOpenOption.READ);
+        } catch (NoSuchFileException e) {
+            synchronized (this) {
+                removeEntry(fileName);
+            }
+            return false;
+        }
+        try (FileChannel channel = fileChannel) {
+            log.info("Serving CSV export from cache file {}", fileName);
+            transferToResponse(cacheDirectory.resolve(fileName), channel, eTag, servletRequest, servletResponse);
+        }
+        return true;
+    }
+
+    /**
+     * Renders export into the cache and serves it from the cached file.
+     *
+     * @param cacheKey        the cache key describing query, data version and rendering options
+     * @param eTag            the ETag of the export, used for If-Range
+     * @param charset         the charset to render with
+     * @param renderer        the renderer
+     * @param servletRequest  the servlet request
+     * @param servletResponse the servlet response
+     * @throws IOException the io exception
+     */
+    public void renderAndServe(String cacheKey, String eTag, Charset charset, ExportRenderer renderer,
+                               HttpServletRequest servletRequest, HttpServletResponse servletResponse) throws IOException {
+        String fileName = toFileName(cacheKey);
+        Path renderFile = Files.createTempFile(cacheDirectory, RENDER_FILE_PREFIX, RENDER_FILE_SUFFIX);
+        try (Writer writer = Files.newBufferedWriter(renderFile, charset)) {
+            renderer.render(writer);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(renderFile);
+            throw e;
+        }
+        Path cachedFile = cacheDirectory.resolve(fileName);
+        Files.move(renderFile, cachedFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        try (FileChannel channel = FileChannel.open(cachedFile, StandardOpenOption.READ)) {
+            addEntry(fileName, channel.size());
+            transferToResponse(cachedFile, channel, eTag, servletRequest, servletResponse);
+        }
+    }
+
+    /**
+     * Sends the file or the requested range of it. With Tomcat's sendfile the response is completed by the connector after
+     * the request returns, otherwise the file channel is copied to the response stream.
+     */
+    private void transferToResponse(Path file, FileChannel channel, String eTag, HttpServletRequest servletRequest,
+                                    HttpServletResponse servletResponse) throws IOException {
+        long fileLength = channel.size();
+        long start = 0;
+        long end = fileLength - 1;
+        servletResponse.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+
+        String rangeHeader = servletRequest.getHeader(HttpHeaders.RANGE);
+        String ifRangeHeader = servletRequest.getHeader(HttpHeaders.IF_RANGE);
+        boolean rangeApplies = null != rangeHeader && (null == ifRangeHeader || ifRangeHeader.equals(eTag));
+        // unparsable or multiple ranges are answered with the whole file which is allowed by RFC 7233
+        List<HttpRange> ranges = rangeApplies ? parseRangesQuietly(rangeHeader) : Collections.emptyList();
+        if (ranges.size() == 1) {
+            HttpRange range = ranges.get(0);
+            if (!isSatisfiable(range, fileLength)) {
+                servletResponse.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                servletResponse.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + fileLength);
+                return;
+            }
+            start = range.getRangeStart(fileLength);
+            end = range.getRangeEnd(fileLength);
+            servletResponse.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+            servletResponse.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + fileLength);
+        }
+
+        long remaining = end - start + 1;
+        servletResponse.setContentLengthLong(remaining);
+        if (remaining >= MIN_SENDFILE_BYTES && Boolean.TRUE.equals(servletRequest.getAttribute(SENDFILE_SUPPORT_ATTR))) {
+            // Tomcat opens the file by name after the request returns, a file evicted meanwhile aborts this response
+            servletRequest.setAttribute(SENDFILE_FILENAME_ATTR, file.toAbsolutePath().toString());
+            servletRequest.setAttribute(SENDFILE_START_ATTR, start);
+            servletRequest.setAttribute(SENDFILE_END_ATTR, end + 1);
+            return;
+        }
+        // without sendfile the JDK copies through a buffer into the servlet stream
+        WritableByteChannel responseChannel = Channels.newChannel(servletResponse.getOutputStream());
+        long position = start;
+        while (remaining > 0) {
+            long transferred = channel.transferTo(position, remaining, responseChannel);
+            if (transferred <= 0) {
+                break;
+            }
+            position += transferred;
+            remaining -= transferred;
+        }
+        servletResponse.flushBuffer();
+    }
+
+    private static List<HttpRange> parseRangesQuietly(String rangeHeader) {
+        try {
+            return HttpRange.parseRanges(rangeHeader);
+        } catch (IllegalArgumentException e) {
+            return Collections.emptyList();
+        }
+    }
+
+    private static boolean isSatisfiable(HttpRange range, long fileLength) {
+        try {
+            return fileLength > 0 && range.getRangeStart(fileLength) <= range.getRangeEnd(fileLength);
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    private synchronized void addEntry(String fileName, long fileSize) {
+        removeEntry(fileName);
+        cachedFileSizes.put(fileName, fileSize);
+        cachedBytes += fileSize;
+
+        Iterator<Map.Entry<String, Long>> leastRecentlyUsed = cachedFileSizes.entrySet().iterator();
+        while (cachedBytes > maxCacheBytes && leastRecentlyUsed.hasNext()) {
+            Map.Entry<String, Long> evicted = leastRecentlyUsed.next();
+            leastRecentlyUsed.remove();
+            cachedBytes -= evicted.getValue();
+            deleteQuietly(evicted.getKey());
+        }
+    }
+
+    private void removeEntry(String fileName) {
+        Long removedSize = cachedFileSizes.remove(fileName);
+        if (null != removedSize) {
+            cachedBytes -= removedSize;
+        }
+    }
+
+    private void deleteQuietly(String fileName) {
+        try {
+            // a download still reading the file keeps its open channel
+            Files.deleteIfExists(cacheDirectory.resolve(fileName));
+        } catch (IOException e) {
+            log.warn("Could not delete evicted CSV export cache file {}: {}", fileName, e.getMessage());
+        }
+    }
+
+    private static String toFileName(String cacheKey) {
+        return DigestUtil.sha256Hex(cacheKey) + ".csv";
+    }
+
+}
@@ -1,6 +1,7 @@
 package com.itworks.dbapi.service;
 
 import com.itworks.dbapi.mapper.GenericMapper;
+import com.itworks.dbapi.pojo.SQLSnapshot;
 import com.itworks.dbapi.pojo.SelectQueryMetaData;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
@@ -17,19 +18,27 @@ import java.util.Map;
 @Slf4j
 public class DataAndCountFetchService {
     private final GenericMapper genericMapper;
+    private final PartitionedTableScanService partitionedTableScanService;
+    private final SQLSnapshotStore sqlSnapshotStore;
 
     /**
      * Instantiates a new Data and count fetch service.
      *
-     * @param genericMapper the generic mapper
+     * @param genericMapper               the generic mapper
+     * @param partitionedTableScanService the partitioned table scan service
+     * @param sqlSnapshotStore            the sql snapshot store
      */
-    public DataAndCountFetchService(GenericMapper genericMapper) {
+    public DataAndCountFetchService(GenericMapper genericMapper, PartitionedTableScanService partitionedTableScanService, SQLSnapshotStore sqlSnapshotStore) {
         this.genericMapper = genericMapper;
+        this.partitionedTableScanService = partitionedTableScanService;
+        this.sqlSnapshotStore = sqlSnapshotStore;
     }
 
 
     /**
      * Gets data for table with simple filter.
+     * When <i>parallel</i> is given the table is scanned in that many key ranges concurrently,
+     * paginated requests are scanned sequentially and the scan parameters are ignored.
      *
      * @param tableName  the table name
      * @param parameters the parameters
@@ -37,18 +46,41 @@ public class DataAndCountFetchService {
      */
     public List<LinkedHashMap> getDataForTableWithSimpleFilter(String tableName, Map<String, String> parameters) {
         log.info("getDataForTableWithSimpleFilter tableName= {} and parameters:{}", tableName, parameters);
+        if (PartitionedTableScanService.isPartitionedScanRequested(parameters)) {
+            return partitionedTableScanService.getDataForTableWithPartitionedScan(tableName, parameters);
+        }
+        if (null != parameters) {
+            parameters = PartitionedTableScanService.withoutScanParameters(parameters);
+        }
         return genericMapper.getAllTableDataWithSimpleFilter(tableName, parameters);
     }
 
 
     /**
      * Gets data for sql id.
+     * Materialized sql ids requested with default parameters are served from their latest snapshot.
      *
      * @param sqlId      the sql id
      * @param parameters the parameters
      * @return the data for sql id
      */
     public List<LinkedHashMap> getDataForSQLId(String sqlId, Map<String, String> parameters) {
+        SQLSnapshot snapshot = sqlSnapshotStore.getSnapshot(sqlId, parameters);
+        if (null != snapshot) {
+            log.info("getDataForSQLId sqlId= {} served from snapshot taken at {}", sqlId, snapshot.getRefreshedAtMillis());
+            return snapshot.getResultData();
+        }
+        return getDataForSQLIdFromDatabase(sqlId, parameters);
+    }
+
+    /**
+     * Gets data for sql id by running its sql, without looking at snapshots.
+     *
+     * @param sqlId      the sql id
+     * @param parameters the parameters
+     * @return the data for sql id
+     */
+    public List<LinkedHashMap> getDataForSQLIdFromDatabase(String sqlId, Map<String, String> parameters) {
         log.info("getDataForSQLId sqlId= {} and parameters:{}", sqlId, parameters);
         String predefinedSQL = genericMapper.getSQLForSQLId(sqlId);
         log.info("Stored SQL for sqlID:{} is: {}", sqlId, predefinedSQL);
@@ -0,0 +1,34 @@
+package com.itworks.dbapi.service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * The type Digest util.
+ */
+final class DigestUtil {
+
+    private DigestUtil() {
+    }
+
+    /**
+     * SHA-256 of the text as lower case hex.
+     *
+     * @param text the text
+     * @return the hex digest
+     */
+    static String sha256Hex(String text) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(text.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+}
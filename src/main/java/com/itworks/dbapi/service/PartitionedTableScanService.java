@@ -0,0 +1,266 @@
+package com.itworks.dbapi.service;
+
+import com.itworks.dbapi.mapper.GenericMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The type Partitioned table scan service.
+ * Splits a full table scan into ranges of an integer key column and runs them concurrently,
+ * every range on its own pooled connection. Rows with a NULL key are read by one more query.
+ */
+@Service
+@Slf4j
+public class PartitionedTableScanService {
+
+    /**
+     * Request parameter holding the number of key ranges to scan concurrently.
+     */
+    public static final String PARALLEL_PARAM = "parallel";
+    /**
+     * Request parameter holding the numeric key column to partition on, ID by default.
+     */
+    public static final String KEY_COLUMN_PARAM = "keyColumn";
+    /**
+     * Request parameter to switch off ordering by key, rows then interleave as ranges complete.
+     */
+    public static final String ORDERED_PARAM = "ordered";
+
+    private static final String DEFAULT_KEY_COLUMN = "ID";
+
+    private final GenericMapper genericMapper;
+    private final ExecutorService scanExecutor;
+    private final int maxPartitions;
+
+    /**
+     * Instantiates a new Partitioned table scan service.
+     * By default the scan threads leave <i>connectionHeadroom</i> pooled connections free for regular requests.
+     *
+     * @param genericMapper      the generic mapper
+     * @param maxThreads         the max threads, min of available cores and free pooled connections when not set
+     * @param maxPartitions      the max key ranges of one scan, number of threads when not set
+     * @param connectionPoolSize the connection pool size
+     * @param connectionHeadroom the pooled connections kept free for regular requests
+     */
+    public PartitionedTableScanService(GenericMapper genericMapper,
+                                       @Value("${dbapi.table-scan.max-threads:0}") int maxThreads,
+                                       @Value("${dbapi.table-scan.max-partitions:0}") int maxPartitions,
+                                       @Value("${spring.datasource.hikari.maximum-pool-size:10}") int connectionPoolSize,
+                                       @Value("${dbapi.table-scan.connection-headroom:2}") int connectionHeadroom) {
+        this.genericMapper = genericMapper;
+        int threads = maxThreads > 0 ? maxThreads
+                : Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), connectionPoolSize - connectionHeadroom));
+        this.maxPartitions = maxPartitions > 0 ? maxPartitions : threads;
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.scanExecutor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "table-scan-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        log.info("Partitioned table scan uses {} threads and at most {} key ranges", threads, this.maxPartitions);
+    }
+
+    /**
+     * Checks whether the request asks for a partitioned scan.
+     * Requests with <i>limit</i> or <i>offset</i> are paginated and always scanned sequentially.
+     *
+     * @param parameters the parameters
+     * @return true if partitioned scan is requested
+     */
+    public static boolean isPartitionedScanRequested(Map<String, String> parameters) {
+        return null != parameters && null != parameters.get(PARALLEL_PARAM)
+                && !parameters.containsKey("limit") && !parameters.containsKey("offset");
+    }
+
+    /**
+     * Removes <i>parallel</i>, <i>keyColumn</i> and <i>ordered</i> which control the scan and are no column filters.
+     *
+     * @param parameters the parameters
+     * @return the parameters without scan parameters
+     */
+    public static Map<String, String> withoutScanParameters(Map<String, String> parameters) {
+        Map<String, String> filters = new LinkedHashMap<>(parameters);
+        filters.remove(PARALLEL_PARAM);
+        filters.remove(KEY_COLUMN_PARAM);
+        filters.remove(ORDERED_PARAM);
+        return filters;
+    }
+
+    /**
+     * Gets data for table with simple filter by scanning key ranges concurrently.
+     *
+     * @param tableName  the table name
+     * @param parameters the parameters
+     * @return the data for table with simple filter
+     */
+    public List<LinkedHashMap> getDataForTableWithPartitionedScan(String tableName, Map<String, String> parameters) {
+        int partitions = parsePartitions(parameters.get(PARALLEL_PARAM));
+        String keyColumn = parameters.getOrDefault(KEY_COLUMN_PARAM, DEFAULT_KEY_COLUMN);
+        String orderedParam = parameters.get(ORDERED_PARAM);
+        boolean ordered = null == orderedParam || (!"N".equalsIgnoreCase(orderedParam) && !"false".equalsIgnoreCase(orderedParam));
+
+        Map<String, String> filters = withoutScanParameters(parameters);
+
+        LinkedHashMap keyBounds = genericMapper.selectKeyBoundsForTable(tableName, keyColumn);
+        Object minKey = getIgnoreCase(keyBounds, "MIN_KEY");
+        Object maxKey = getIgnoreCase(keyBounds, "MAX_KEY");
+        List<KeyRange> keyRanges = null == minKey || null == maxKey ? Collections.emptyList()
+                : splitKeyRange(toIntegralKey(minKey, keyColumn), toIntegralKey(maxKey, keyColumn), Math.min(partitions, maxPartitions));
+        log.info("Scanning {} on {} in {} ranges between {} and {} and NULL keys, ordered={}", tableName, keyColumn, keyRanges.size(), minKey, maxKey, ordered);
+
+        CompletionService<List<LinkedHashMap>> completionService = new ExecutorCompletionService<>(scanExecutor);
+        List<Future<List<LinkedHashMap>>> rangeResults = new ArrayList<>(keyRanges.size() + 1);
+        for (KeyRange keyRange : keyRanges) {
+            rangeResults.add(completionService.submit(() -> genericMapper.getTableDataForKeyRangeWithSimpleFilter(tableName, filters, keyColumn,
+                    keyRange.getLowerBound(), keyRange.getUpperBound())));
+        }
+        // no key range selects NULL keys, those rows come last
+        rangeResults.add(completionService.submit(() -> genericMapper.getTableDataForNullKeyWithSimpleFilter(tableName, filters, keyColumn)));
+
+        List<LinkedHashMap> resultData = new ArrayList<>();
+        try {
+            for (int i = 0; i < rangeResults.size(); i++) {
+                Future<List<LinkedHashMap>> rangeResult = ordered ? rangeResults.get(i) : completionService.take();
+                resultData.addAll(rangeResult.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            rangeResults.forEach(f -> f.cancel(true));
+            throw new IllegalStateException("Parallel scan of " + tableName + " was interrupted", e);
+        } catch (ExecutionException e) {
+            rangeResults.forEach(f -> f.cancel(true));
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException("Parallel scan of " + tableName + " failed", e.getCause());
+        }
+        log.info("Parallel scan of {} returned {} rows", tableName, resultData.size());
+        return resultData;
+    }
+
+    /**
+     * Shuts down the scan threads.
+     */
+    @PreDestroy
+    public void shutdown() {
+        scanExecutor.shutdownNow();
+    }
+
+    /**
+     * Splits the keys between <i>minKey</i> and <i>maxKey</i> into at most <i>partitions</i> half-open ranges of equal width.
+     * The last range has no upper bound, so keys inserted above <i>maxKey</i> meanwhile are not lost.
+     *
+     * @param minKey     the min key
+     * @param maxKey     the max key
+     * @param partitions the max number of ranges
+     * @return the key ranges in key order
+     */
+    static List<KeyRange> splitKeyRange(long minKey, long maxKey, int partitions) {
+        // the span of a BIGINT column does not fit in a long
+        BigInteger keySpan = BigInteger.valueOf(maxKey).subtract(BigInteger.valueOf(minKey)).add(BigInteger.ONE);
+        BigInteger requestedRanges = BigInteger.valueOf(partitions).min(keySpan);
+        BigInteger rangeWidth = keySpan.add(requestedRanges).subtract(BigInteger.ONE).divide(requestedRanges);
+        // rounding the width up can leave fewer ranges than requested, none of them empty
+        int rangeCount = keySpan.add(rangeWidth).subtract(BigInteger.ONE).divide(rangeWidth).intValueExact();
+
+        List<KeyRange> keyRanges = new ArrayList<>(rangeCount);
+        for (int i = 0; i < rangeCount; i++) {
+            long lowerBound = BigInteger.valueOf(minKey).add(rangeWidth.multiply(BigInteger.valueOf(i))).longValueExact();
+            Long upperBound = i == rangeCount - 1 ? null
+                    : BigInteger.valueOf(minKey).add(rangeWidth.multiply(BigInteger.valueOf(i + 1))).longValueExact();
+            keyRanges.add(new KeyRange(lowerBound, upperBound));
+        }
+        return keyRanges;
+    }
+
+    /**
+     * Converts a key read from the database, only integer keys can be split into ranges without losing rows in between.
+     *
+     * @param key       the key
+     * @param keyColumn the key column
+     * @return the key as long
+     */
+    static long toIntegralKey(Object key, String keyColumn) {
+        try {
+            if (key instanceof Long || key instanceof Integer || key instanceof Short || key instanceof Byte) {
+                return ((Number) key).longValue();
+            } else if (key instanceof BigInteger) {
+                return ((BigInteger) key).longValueExact();
+            } else if (key instanceof BigDecimal && ((BigDecimal) key).scale() <= 0) {
+                return ((BigDecimal) key).longValueExact();
+            }
+        } catch (ArithmeticException e) {
+            throw new IllegalArgumentException("keyColumn " + keyColumn + " has keys out of the BIGINT range for a parallel scan.");
+        }
+        throw new IllegalArgumentException("keyColumn " + keyColumn + " must be an integer column for a parallel scan.");
+    }
+
+    private static int parsePartitions(String parallelParam) {
+        int partitions;
+        try {
+            partitions = Integer.parseInt(parallelParam.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("parallel must be the number of key ranges to scan e.g. ?parallel=4");
+        }
+        if (partitions < 1) {
+            throw new IllegalArgumentException("parallel must be greater than 0.");
+        }
+        return partitions;
+    }
+
+    /**
+     * Keys from the inclusive lower bound up to the exclusive upper bound, no upper bound when null.
+     */
+    static final class KeyRange {
+        private final long lowerBound;
+        private final Long upperBound;
+
+        KeyRange(long lowerBound, Long upperBound) {
+            this.lowerBound = lowerBound;
+            this.upperBound = upperBound;
+        }
+
+        long getLowerBound() {
+            return lowerBound;
+        }
+
+        Long getUpperBound() {
+            return upperBound;
+        }
+
+        @Override
+        public String toString() {
+            return "[" + lowerBound + ", " + (null == upperBound ? "" : upperBound) + ")";
+        }
+    }
+
+    private static Object getIgnoreCase(Map<?, ?> row, String columnName) {
+        if (null == row) {
+            return null;
+        }
+        for (Map.Entry<?, ?> entry : row.entrySet()) {
+            if (columnName.equalsIgnoreCase(entry.getKey().toString())) {
+                return entry.getValue();
+            }
+        }
+        return null;
+    }
+
+}
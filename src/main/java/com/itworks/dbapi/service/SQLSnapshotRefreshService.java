@@ -0,0 +1,266 @@
+package com.itworks.dbapi.service;
+
+import com.itworks.dbapi.mapper.GenericMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.support.CronTrigger;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The type SQL snapshot refresh service.
+ * Materializes every active PRE_DEFINED_SQL having a REFRESH_CRON on its cron schedule.
+ * The definitions are re-read whenever the PRE_DEFINED_SQL version changes, so activating, deactivating
+ * or changing the cron of a sql id takes effect without restart. Without a PRE_DEFINED_SQL version in TABLE_VERSION
+ * the definitions are read once when the application is ready.
+ * The shared task scheduler only triggers refreshes, the queries run on their own threads so long running sql
+ * never delays the TABLE_VERSION reload.
+ */
+@Service
+@Slf4j
+public class SQLSnapshotRefreshService {
+    private static final String PRE_DEFINED_SQL_TABLE = "PRE_DEFINED_SQL";
+
+    private final GenericMapper genericMapper;
+    private final DataAndCountFetchService dataAndCountFetchService;
+    private final SQLSnapshotStore sqlSnapshotStore;
+    private final TableVersionService tableVersionService;
+    private final TaskScheduler taskScheduler;
+    private final ExecutorService refreshExecutor;
+
+    /**
+     * Scheduled refresh of every materialized sql id with its REFRESH_CRON.
+     */
+    private final Map<String, ScheduledRefresh> scheduledRefreshes = new ConcurrentHashMap<>();
+    /**
+     * Sql ids waiting for a refresh thread, a refresh is not queued twice.
+     */
+    private final Set<String> queuedRefreshes = ConcurrentHashMap.newKeySet();
+    private volatile boolean applicationReady;
+    private Long syncedDefinitionVersion;
+
+    /**
+     * Instantiates a new SQL snapshot refresh service.
+     *
+     * @param genericMapper            the generic mapper
+     * @param dataAndCountFetchService the data and count fetch service
+     * @param sqlSnapshotStore         the sql snapshot store
+     * @param tableVersionService      the table version service
+     * @param taskScheduler            the task scheduler
+     * @param refreshThreads           the threads running snapshot queries
+     */
+    public SQLSnapshotRefreshService(GenericMapper genericMapper, DataAndCountFetchService dataAndCountFetchService,
+                                     SQLSnapshotStore sqlSnapshotStore, TableVersionService tableVersionService, TaskScheduler taskScheduler,
+                                     @Value("${dbapi.snapshot.refresh-threads:1}") int refreshThreads) {
+        if (refreshThreads < 1) {
+            throw new IllegalArgumentException("dbapi.snapshot.refresh-threads must be greater than 0.");
+        }
+        this.genericMapper = genericMapper;
+        this.dataAndCountFetchService = dataAndCountFetchService;
+        this.sqlSnapshotStore = sqlSnapshotStore;
+        this.tableVersionService = tableVersionService;
+        this.taskScheduler = taskScheduler;
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.refreshExecutor = Executors.newFixedThreadPool(refreshThreads, runnable -> {
+            Thread thread = new Thread(runnable, "snapshot-refresh-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Schedules snapshot refresh of materialized sql ids once the application is ready.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void scheduleSnapshotRefresh() {
+        applicationReady = true;
+        syncMaterializedSQLIds(true);
+    }
+
+    /**
+     * Re-reads materialized sql ids when PRE_DEFINED_SQL changed since the last sync.
+     * Nothing is done while the PRE_DEFINED_SQL version is unknown, the sync at ready and the crons keep running.
+     */
+    @Scheduled(fixedDelayString = "${dbapi.table-version.refresh-interval-ms:1000}")
+    public void syncOnDefinitionChange() {
+        if (applicationReady) {
+            syncMaterializedSQLIds(false);
+        }
+    }
+
+    /**
+     * Schedules new materialized sql ids, reschedules changed crons and drops snapshots of sql ids
+     * which are no longer active or materialized.
+     *
+     * @param force sync even if the PRE_DEFINED_SQL version did not change or is unknown
+     */
+    public synchronized void syncMaterializedSQLIds(boolean force) {
+        Long definitionVersion = tableVersionService.getTableVersion(PRE_DEFINED_SQL_TABLE);
+        boolean definitionChanged = null != definitionVersion && null != syncedDefinitionVersion
+                && !definitionVersion.equals(syncedDefinitionVersion);
+        // versions may be loaded only after ready, the first known version is synced without re-running unchanged sql ids
+        boolean firstKnownVersion = null != definitionVersion && null == syncedDefinitionVersion;
+        if (!force && !definitionChanged && !firstKnownVersion) {
+            return;
+        }
+        List<LinkedHashMap> materializedSQLIds;
+        try {
+            materializedSQLIds = genericMapper.selectMaterializedSQLIds();
+        } catch (RuntimeException e) {
+            log.warn("Could not read materialized sql ids, keeping current schedule: {}", e.getMessage());
+            return;
+        }
+        syncedDefinitionVersion = definitionVersion;
+
+        Map<String, String> refreshCrons = new HashMap<>();
+        for (LinkedHashMap row : materializedSQLIds) {
+            String sqlId = null;
+            String refreshCron = null;
+            for (Object entry : row.entrySet()) {
+                Map.Entry column = (Map.Entry) entry;
+                if ("SQL_ID".equalsIgnoreCase(column.getKey().toString())) {
+                    sqlId = column.getValue().toString();
+                } else if ("REFRESH_CRON".equalsIgnoreCase(column.getKey().toString())) {
+                    refreshCron = column.getValue().toString();
+                }
+            }
+            if (null != sqlId && null != refreshCron) {
+                refreshCrons.put(sqlId, refreshCron);
+            }
+        }
+
+        for (String sqlId : new HashSet<>(scheduledRefreshes.keySet())) {
+            if (!refreshCrons.containsKey(sqlId)) {
+                unschedule(sqlId);
+                log.info("sqlId:{} is no longer active or materialized, its snapshot is dropped", sqlId);
+            }
+        }
+        for (Map.Entry<String, String> refreshCron : refreshCrons.entrySet()) {
+            ScheduledRefresh scheduledRefresh = scheduledRefreshes.get(refreshCron.getKey());
+            String sqlId = refreshCron.getKey();
+            if (null == scheduledRefresh || !Objects.equals(scheduledRefresh.refreshCron, refreshCron.getValue())) {
+                schedule(sqlId, refreshCron.getValue());
+            } else if (definitionChanged) {
+                // SQL_TEXT or PARAM_DEFAULT_VALUES may have changed, do not wait for the next cron
+                queueRefresh(sqlId);
+            }
+        }
+    }
+
+    private void schedule(String sqlId, String refreshCron) {
+        CronTrigger cronTrigger;
+        try {
+            cronTrigger = new CronTrigger(refreshCron);
+        } catch (IllegalArgumentException e) {
+            log.error("Invalid REFRESH_CRON '{}' for sqlId:{}, it will not be materialized", refreshCron, sqlId, e);
+            unschedule(sqlId);
+            return;
+        }
+        ScheduledRefresh previous = scheduledRefreshes.put(sqlId,
+                new ScheduledRefresh(refreshCron, taskScheduler.schedule(() -> queueRefresh(sqlId), cronTrigger)));
+        if (null != previous) {
+            previous.future.cancel(false);
+        }
+        queueRefresh(sqlId);
+        log.info("Materializing sqlId:{} with REFRESH_CRON '{}'", sqlId, refreshCron);
+    }
+
+    /**
+     * Hands refresh of sql id to the refresh threads unless it is already waiting for one.
+     */
+    private void queueRefresh(String sqlId) {
+        if (!queuedRefreshes.add(sqlId)) {
+            log.info("Snapshot refresh of sqlId:{} is already queued", sqlId);
+            return;
+        }
+        try {
+            refreshExecutor.execute(() -> {
+                queuedRefreshes.remove(sqlId);
+                refreshSnapshot(sqlId);
+            });
+        } catch (RejectedExecutionException e) {
+            queuedRefreshes.remove(sqlId);
+            log.warn("Snapshot refresh of sqlId:{} rejected, shutting down", sqlId);
+        }
+    }
+
+    /**
+     * Stops the refresh threads, a running snapshot query is interrupted.
+     */
+    @PreDestroy
+    public void shutdown() {
+        scheduledRefreshes.values().forEach(scheduledRefresh -> scheduledRefresh.future.cancel(false));
+        refreshExecutor.shutdownNow();
+    }
+
+    private void unschedule(String sqlId) {
+        ScheduledRefresh scheduledRefresh = scheduledRefreshes.remove(sqlId);
+        if (null != scheduledRefresh) {
+            scheduledRefresh.future.cancel(false);
+        }
+        sqlSnapshotStore.removeSnapshot(sqlId);
+    }
+
+    /**
+     * Re-runs the sql of sql id with PARAM_DEFAULT_VALUES and swaps in the new snapshot.
+     * The previous snapshot keeps being served while the query runs or if it fails.
+     * If the sql id is no longer active or materialized its snapshot is dropped instead.
+     *
+     * @param sqlId the sql id
+     */
+    public void refreshSnapshot(String sqlId) {
+        long startMillis = System.currentTimeMillis();
+        try {
+            if (null == genericMapper.getRefreshCronForActiveSQLId(sqlId)) {
+                synchronized (this) {
+                    unschedule(sqlId);
+                }
+                log.info("sqlId:{} is no longer active or materialized, its snapshot is dropped", sqlId);
+                return;
+            }
+            // versions are read before the query, so a change committed meanwhile gives the next snapshot a new version
+            tableVersionService.refreshTableVersions();
+            String sourceVersion = tableVersionService.getSourceVersion(sqlId);
+            List<LinkedHashMap> resultData = dataAndCountFetchService.getDataForSQLIdFromDatabase(sqlId, Collections.emptyMap());
+            sqlSnapshotStore.replaceSnapshot(sqlId, resultData, sourceVersion);
+            if (!scheduledRefreshes.containsKey(sqlId)) {
+                // unscheduled while the query was running
+                sqlSnapshotStore.removeSnapshot(sqlId);
+                return;
+            }
+            log.info("Snapshot of sqlId:{} refreshed with {} rows in {} ms", sqlId, resultData.size(), System.currentTimeMillis() - startMillis);
+        } catch (RuntimeException e) {
+            log.error("Snapshot refresh failed for sqlId:{}", sqlId, e);
+        }
+    }
+
+    private static final class ScheduledRefresh {
+        private final String refreshCron;
+        private final ScheduledFuture<?> future;
+
+        private ScheduledRefresh(String refreshCron, ScheduledFuture<?> future) {
+            this.refreshCron = refreshCron;
+            this.future = future;
+        }
+    }
+
+}
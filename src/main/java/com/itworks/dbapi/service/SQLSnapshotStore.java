@@ -0,0 +1,64 @@
+package com.itworks.dbapi.service;
+
+import com.itworks.dbapi.pojo.SQLSnapshot;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The type SQL snapshot store.
+ * Holds the latest materialized result of sql ids having REFRESH_CRON, a refresh replaces the whole snapshot at once.
+ */
+@Component
+public class SQLSnapshotStore {
+
+    /**
+     * Request parameters which only change how the response is rendered, not which rows are selected.
+     */
+    private static final Set<String> PRESENTATION_PARAMS = new HashSet<>(Arrays.asList("fileName", "skipHeaderRow"));
+
+    private final Map<String, SQLSnapshot> snapshots = new ConcurrentHashMap<>();
+
+    /**
+     * Gets snapshot to serve the request from.
+     * Snapshots are taken with PARAM_DEFAULT_VALUES, so they are used only when no other parameter is passed.
+     *
+     * @param sqlId      the sql id
+     * @param parameters the parameters
+     * @return the snapshot or null when the request has to go to the database
+     */
+    public SQLSnapshot getSnapshot(String sqlId, Map<String, String> parameters) {
+        if (null != parameters && !PRESENTATION_PARAMS.containsAll(parameters.keySet())) {
+            return null;
+        }
+        return snapshots.get(sqlId);
+    }
+
+    /**
+     * Replaces snapshot of sql id.
+     *
+     * @param sqlId         the sql id
+     * @param resultData    the result data
+     * @param sourceVersion the version of the tables read by the sql when the snapshot was taken, null if not tracked
+     */
+    public void replaceSnapshot(String sqlId, List<LinkedHashMap> resultData, String sourceVersion) {
+        snapshots.put(sqlId, new SQLSnapshot(sqlId, Collections.unmodifiableList(resultData), System.currentTimeMillis(), sourceVersion));
+    }
+
+    /**
+     * Removes snapshot of sql id, requests then go to the database again.
+     *
+     * @param sqlId the sql id
+     */
+    public void removeSnapshot(String sqlId) {
+        snapshots.remove(sqlId);
+    }
+
+}
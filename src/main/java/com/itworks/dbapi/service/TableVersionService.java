@@ -0,0 +1,210 @@
+package com.itworks.dbapi.service;
+
+import com.itworks.dbapi.mapper.GenericMapper;
+import com.itworks.dbapi.pojo.SQLSnapshot;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The type Table version service.
+ * Keeps the TABLE_VERSION change tracking table and the SOURCE_TABLES of predefined sql in memory
+ * and derives ETags from them, so unchanged data can be answered with 304 without any query.
+ */
+@Service
+@Slf4j
+public class TableVersionService {
+
+    private static final String PRE_DEFINED_SQL_TABLE = "PRE_DEFINED_SQL";
+
+    private final GenericMapper genericMapper;
+    private final SQLSnapshotStore sqlSnapshotStore;
+
+    /**
+     * Replaced as a whole on refresh, so table versions and source tables are always read consistently.
+     */
+    private volatile VersionState versionState = new VersionState(Collections.emptyMap(), Collections.emptyMap());
+
+    /**
+     * Instantiates a new Table version service.
+     *
+     * @param genericMapper    the generic mapper
+     * @param sqlSnapshotStore the sql snapshot store
+     */
+    public TableVersionService(GenericMapper genericMapper, SQLSnapshotStore sqlSnapshotStore) {
+        this.genericMapper = genericMapper;
+        this.sqlSnapshotStore = sqlSnapshotStore;
+    }
+
+    /**
+     * Reloads table versions from TABLE_VERSION, picking up changes bumped by triggers or other writers.
+     * SOURCE_TABLES of predefined sql are reloaded only when the PRE_DEFINED_SQL version changed.
+     */
+    @Scheduled(fixedDelayString = "${dbapi.table-version.refresh-interval-ms:1000}")
+    public synchronized void refreshTableVersions() {
+        try {
+            Map<String, Long> versions = new HashMap<>();
+            for (LinkedHashMap row : genericMapper.selectTableVersions()) {
+                Object tableName = getIgnoreCase(row, "TABLE_NAME");
+                Object version = getIgnoreCase(row, "VERSION");
+                if (null != tableName && version instanceof Number) {
+                    versions.put(tableName.toString().toUpperCase(Locale.ROOT), ((Number) version).longValue());
+                }
+            }
+
+            VersionState previousState = versionState;
+            Long definitionVersion = versions.get(PRE_DEFINED_SQL_TABLE);
+            Map<String, List<String>> sourceTables = previousState.sourceTablesBySQLId;
+            if (null == definitionVersion) {
+                sourceTables = Collections.emptyMap();
+            } else if (!definitionVersion.equals(previousState.tableVersions.get(PRE_DEFINED_SQL_TABLE))) {
+                sourceTables = loadSourceTables();
+            }
+            versionState = new VersionState(versions, sourceTables);
+        } catch (RuntimeException e) {
+            log.warn("Could not refresh table versions, keeping previous ones: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Increments version of a table after a change to it is committed, in its own transaction.
+     *
+     * @param tableName the table name
+     */
+    public void bumpVersion(String tableName) {
+        if (genericMapper.incrementTableVersion(tableName) > 0) {
+            refreshTableVersions();
+        }
+    }
+
+    /**
+     * Gets in-memory version of table.
+     *
+     * @param tableName the table name
+     * @return the version or null when table is not tracked
+     */
+    public Long getTableVersion(String tableName) {
+        return versionState.tableVersions.get(tableName.toUpperCase(Locale.ROOT));
+    }
+
+    /**
+     * Gets ETag for table-data response.
+     *
+     * @param tableName  the table name
+     * @param parameters the parameters
+     * @return the ETag or null when table is not tracked
+     */
+    public String getETagForTableData(String tableName, Map<String, String> parameters) {
+        Long version = versionState.tableVersions.get(tableName.toUpperCase(Locale.ROOT));
+        if (null == version) {
+            return null;
+        }
+        return buildETag(tableName, String.valueOf(version), parameters);
+    }
+
+    /**
+     * Gets ETag for sql-id-data response from versions of PRE_DEFINED_SQL and of the SOURCE_TABLES of the sql id.
+     * Responses served from a snapshot get their ETag from the source tables versions the snapshot was taken at.
+     *
+     * @param sqlId      the sql id
+     * @param parameters the parameters
+     * @return the ETag or null when any table read by the sql is not tracked
+     */
+    public String getETagForSQLIdData(String sqlId, Map<String, String> parameters) {
+        SQLSnapshot snapshot = sqlSnapshotStore.getSnapshot(sqlId, parameters);
+        if (null != snapshot) {
+            return null == snapshot.getSourceVersion() ? null : buildETag(sqlId, "s" + snapshot.getSourceVersion(), parameters);
+        }
+        String sourceVersion = getSourceVersion(sqlId);
+        if (null == sourceVersion) {
+            return null;
+        }
+        return buildETag(sqlId, sourceVersion, parameters);
+    }
+
+    /**
+     * Gets data version of sql id made of the PRE_DEFINED_SQL version and the versions of its SOURCE_TABLES.
+     *
+     * @param sqlId the sql id
+     * @return the source version or null when any table read by the sql is not tracked
+     */
+    public String getSourceVersion(String sqlId) {
+        VersionState state = versionState;
+        Long definitionVersion = state.tableVersions.get(PRE_DEFINED_SQL_TABLE);
+        List<String> sourceTables = state.sourceTablesBySQLId.get(sqlId);
+        if (null == definitionVersion || null == sourceTables) {
+            return null;
+        }
+        StringBuilder version = new StringBuilder().append(definitionVersion);
+        for (String sourceTable : sourceTables) {
+            Long sourceVersion = state.tableVersions.get(sourceTable);
+            if (null == sourceVersion) {
+                return null;
+            }
+            version.append('.').append(sourceVersion);
+        }
+        return version.toString();
+    }
+
+    private Map<String, List<String>> loadSourceTables() {
+        Map<String, List<String>> sourceTablesBySQLId = new HashMap<>();
+        for (LinkedHashMap row : genericMapper.selectSQLIdSourceTables()) {
+            Object sqlId = getIgnoreCase(row, "SQL_ID");
+            Object sourceTables = getIgnoreCase(row, "SOURCE_TABLES");
+            if (null == sqlId || null == sourceTables || sourceTables.toString().trim().isEmpty()) {
+                continue;
+            }
+            List<String> tableNames = new ArrayList<>();
+            for (String sourceTable : sourceTables.toString().split(",")) {
+                tableNames.add(sourceTable.trim().toUpperCase(Locale.ROOT));
+            }
+            sourceTablesBySQLId.put(sqlId.toString(), tableNames);
+        }
+        return sourceTablesBySQLId;
+    }
+
+    /**
+     * Builds a strong ETag from the data version and a SHA-256 digest of the resource name and the sorted parameters.
+     * Names and values are length prefixed, so no two different parameter maps produce the same digest input.
+     */
+    private static String buildETag(String name, String version, Map<String, String> parameters) {
+        StringBuilder query = new StringBuilder().append(name.length()).append(':').append(name);
+        if (null != parameters) {
+            for (Map.Entry<String, String> parameter : new TreeMap<>(parameters).entrySet()) {
+                String value = String.valueOf(parameter.getValue());
+                query.append('|').append(parameter.getKey().length()).append(':').append(parameter.getKey())
+                        .append(value.length()).append(':').append(value);
+            }
+        }
+        return "\"" + version + "-" + DigestUtil.sha256Hex(query.toString()) + "\"";
+    }
+
+    private static Object getIgnoreCase(Map<?, ?> row, String columnName) {
+        for (Map.Entry<?, ?> entry : row.entrySet()) {
+            if (columnName.equalsIgnoreCase(entry.getKey().toString())) {
+                return entry.getValue();
+            }
+        }
+        return null;
+    }
+
+    private static final class VersionState {
+        private final Map<String, Long> tableVersions;
+        private final Map<String, List<String>> sourceTablesBySQLId;
+
+        private VersionState(Map<String, Long> tableVersions, Map<String, List<String>> sourceTablesBySQLId) {
+            this.tableVersions = tableVersions;
+            this.sourceTablesBySQLId = sourceTablesBySQLId;
+        }
+    }
+
+}
@@ -0,0 +1,31 @@
+package com.itworks.dbapi.sqlbuilder;
+
+import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.jdbc.SQL;
+
+import java.util.Map;
+
+/**
+ * The type Generic insert builder.
+ */
+public class GenericInsertBuilder {
+
+    /**
+     * Insert table row string.
+     * Column names must be validated against table metadata before, values are bound as parameters.
+     *
+     * @param tableName the table name
+     * @param row       the column values of the row
+     * @return the string
+     */
+    public String insertTableRow(@Param("tableName") String tableName, @Param("row") Map<String, Object> row) {
+        return new SQL() {{
+            INSERT_INTO(tableName);
+            for (String columnName : row.keySet()) {
+                VALUES(columnName, "#{row." + columnName + "}");
+            }
+
+        }}.toString();
+    }
+
+}
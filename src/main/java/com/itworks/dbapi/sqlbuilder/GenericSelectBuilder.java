@@ -1,5 +1,6 @@
 package com.itworks.dbapi.sqlbuilder;
 
+import org.apache.ibatis.annotations.Param;
 import org.apache.ibatis.jdbc.SQL;
 import com.itworks.dbapi.pojo.FilterCriteria;
 import com.itworks.dbapi.pojo.SelectQueryMetaData;
@@ -121,6 +122,62 @@ public class GenericSelectBuilder {
         }}.toString();
     }
 
+    /**
+     * Select table data for key range with simple filter string.
+     * Used by the partitioned scan, so each range is ordered by the key column.
+     *
+     * @param tableName  the table name
+     * @param parameters the parameters
+     * @param keyColumn  the key column
+     * @param lowerBound the inclusive lower bound
+     * @param upperBound the exclusive upper bound, null for the last range
+     * @return the string
+     */
+    public String selectTableDataForKeyRangeWithSimpleFilter(@Param("tableName") String tableName, @Param("parameters") Map<String, String> parameters,
+                                                             @Param("keyColumn") String keyColumn, @Param("lowerBound") long lowerBound, @Param("upperBound") Long upperBound) {
+        return new SQL() {{
+            SELECT(" * ");
+            FROM(tableName);
+
+            if (parameters != null) {
+                for (Map.Entry<String, String> filterCriteria : parameters.entrySet()) {
+                    WHERE(filterCriteria.getKey() + " = #{parameters." + filterCriteria.getKey() + "}");
+                }
+            }
+            WHERE(keyColumn + " >= #{lowerBound}");
+            if (upperBound != null) {
+                WHERE(keyColumn + " < #{upperBound}");
+            }
+            ORDER_BY(keyColumn);
+
+        }}.toString();
+    }
+
+    /**
+     * Select table data having a NULL key with simple filter string.
+     * Used by the partitioned scan for the rows no key range selects.
+     *
+     * @param tableName  the table name
+     * @param parameters the parameters
+     * @param keyColumn  the key column
+     * @return the string
+     */
+    public String selectTableDataForNullKeyWithSimpleFilter(@Param("tableName") String tableName, @Param("parameters") Map<String, String> parameters,
+                                                            @Param("keyColumn") String keyColumn) {
+        return new SQL() {{
+            SELECT(" * ");
+            FROM(tableName);
+
+            if (parameters != null) {
+                for (Map.Entry<String, String> filterCriteria : parameters.entrySet()) {
+                    WHERE(filterCriteria.getKey() + " = #{parameters." + filterCriteria.getKey() + "}");
+                }
+            }
+            WHERE(keyColumn + " IS NULL");
+
+        }}.toString();
+    }
+
     /**
      * Select all table count with simple filter string.
      *
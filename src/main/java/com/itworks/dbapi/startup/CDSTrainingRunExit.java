@@ -0,0 +1,31 @@
+package com.itworks.dbapi.startup;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.annotation.Profile;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+/**
+ * The type CDS training run exit.
+ * With the cds-training profile the application exits as soon as it is ready, so the JVM writes
+ * the AppCDS archive of every class loaded during startup and warmup.
+ */
+@Component
+@Profile("cds-training")
+@Slf4j
+public class CDSTrainingRunExit {
+
+    /**
+     * Exits the application once it is ready.
+     *
+     * @param event the event
+     */
+    @EventListener
+    public void onApplicationReady(ApplicationReadyEvent event) {
+        log.info("CDS training run finished, exiting");
+        System.exit(SpringApplication.exit(event.getApplicationContext()));
+    }
+
+}
@@ -0,0 +1,29 @@
+package com.itworks.dbapi.startup;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * The type Startup time reporter.
+ * Logs the time from JVM start until the application is ready for traffic, startup-benchmark.sh reads this line.
+ */
+@Component
+@Slf4j
+public class StartupTimeReporter {
+
+    /**
+     * Logs startup time once the application is ready.
+     *
+     * @param event the event
+     */
+    @EventListener
+    public void onApplicationReady(ApplicationReadyEvent event) {
+        long readyMillis = System.currentTimeMillis() - ManagementFactory.getRuntimeMXBean().getStartTime();
+        log.info("Ready for traffic in {} ms since JVM start", readyMillis);
+    }
+
+}
@@ -0,0 +1,113 @@
+package com.itworks.dbapi.startup;
+
+import com.itworks.dbapi.mapper.GenericMapper;
+import com.itworks.dbapi.pojo.FilterCriteria;
+import com.itworks.dbapi.pojo.SelectQueryMetaData;
+import com.itworks.dbapi.service.TableVersionService;
+import com.itworks.dbapi.sqlbuilder.GenericSelectBuilder;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.context.ApplicationContext;
+import org.springframework.stereotype.Component;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The type Startup warmup runner.
+ * Runs before readiness is reported, so with lazy initialization the request serving beans are created,
+ * every mapper statement kind runs once and the GenericSelectBuilder paths are interpreted a few times
+ * before the first request arrives. The JIT compiler is not expected to be done with them by then.
+ */
+@Component
+@Slf4j
+public class StartupWarmupRunner implements ApplicationRunner {
+
+    private static final String WARMUP_TABLE = "PRE_DEFINED_SQL";
+    private static final String WARMUP_SQL_ID = "__warmup__";
+
+    private final ApplicationContext applicationContext;
+    private final SqlSessionFactory sqlSessionFactory;
+    private final GenericMapper genericMapper;
+    private final TableVersionService tableVersionService;
+    private final int warmupIterations;
+
+    /**
+     * Instantiates a new Startup warmup runner.
+     *
+     * @param applicationContext  the application context
+     * @param sqlSessionFactory   the sql session factory
+     * @param genericMapper       the generic mapper
+     * @param tableVersionService the table version service
+     * @param warmupIterations    the warmup iterations, 0 disables warmup
+     */
+    public StartupWarmupRunner(ApplicationContext applicationContext, SqlSessionFactory sqlSessionFactory, GenericMapper genericMapper,
+                               TableVersionService tableVersionService, @Value("${dbapi.startup.warmup.iterations:0}") int warmupIterations) {
+        this.applicationContext = applicationContext;
+        this.sqlSessionFactory = sqlSessionFactory;
+        this.genericMapper = genericMapper;
+        this.tableVersionService = tableVersionService;
+        this.warmupIterations = warmupIterations;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (warmupIterations <= 0) {
+            return;
+        }
+        long startMillis = System.currentTimeMillis();
+
+        int controllerCount = applicationContext.getBeansWithAnnotation(RestController.class).size();
+        int statementCount = sqlSessionFactory.getConfiguration().getMappedStatementNames().size();
+        tableVersionService.refreshTableVersions();
+
+        GenericSelectBuilder genericSelectBuilder = new GenericSelectBuilder();
+        Map<String, String> simpleFilter = new LinkedHashMap<>();
+        simpleFilter.put("SQL_ID", WARMUP_SQL_ID);
+        Map<String, String> givenSQL = new LinkedHashMap<>();
+        givenSQL.put("sql", "select * from " + WARMUP_TABLE);
+        givenSQL.put("limit", "1");
+        SelectQueryMetaData metaData = newWarmupMetaData();
+
+        // once is enough to prepare the statements and fill the connection pool, more round trips only delay readiness
+        try {
+            genericMapper.getSQLForSQLId(WARMUP_SQL_ID);
+            genericMapper.getAllTableDataWithSimpleFilter(WARMUP_TABLE, simpleFilter);
+            genericMapper.selectDataFromPostWithSelectedColumns(metaData);
+            genericMapper.selectCountFromPostWithSelectedColumns(metaData);
+        } catch (RuntimeException e) {
+            log.warn("Skipping database warmup, {} is not queryable: {}", WARMUP_TABLE, e.getMessage());
+        }
+
+        for (int i = 0; i < warmupIterations; i++) {
+            genericSelectBuilder.selectTableDataWithFilter(metaData);
+            genericSelectBuilder.selectTableDataCountOnlyWithFilter(metaData);
+            genericSelectBuilder.selectAllTableDataWithSimpleFilter(WARMUP_TABLE, simpleFilter);
+            genericSelectBuilder.selectAllTableCountWithSimpleFilter(WARMUP_TABLE, simpleFilter);
+            genericSelectBuilder.selectAllTableDataWithGivenSQL(givenSQL);
+            genericSelectBuilder.selectTableDataForKeyRangeWithSimpleFilter(WARMUP_TABLE, simpleFilter, "ID", 1L, 2L);
+        }
+        log.info("Warmup of {} controllers and {} mapped statements with {} iterations took {} ms",
+                controllerCount, statementCount, warmupIterations, System.currentTimeMillis() - startMillis);
+    }
+
+    private static SelectQueryMetaData newWarmupMetaData() {
+        FilterCriteria filterCriteria = new FilterCriteria();
+        filterCriteria.setColumnName("SQL_ID");
+        filterCriteria.setColumnValue(WARMUP_SQL_ID);
+
+        SelectQueryMetaData metaData = new SelectQueryMetaData();
+        metaData.setTableName(WARMUP_TABLE);
+        metaData.setColumnsToSelect(Collections.singletonList("SQL_ID"));
+        metaData.setFilterCriteria(Collections.singletonList(filterCriteria));
+        metaData.setOrderBy(Collections.singletonList("SQL_ID"));
+        metaData.setLimit(1);
+        return metaData;
+    }
+
+}
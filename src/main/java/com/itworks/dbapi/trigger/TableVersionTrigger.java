@@ -0,0 +1,40 @@
+package com.itworks.dbapi.trigger;
+
+import org.h2.api.Trigger;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+/**
+ * The type Table version trigger.
+ * H2 statement trigger incrementing the TABLE_VERSION row of the changed table in the same transaction,
+ * so every writer, not only this service, invalidates ETags and cached exports of that table.
+ * Writers of the table serialize on that row until they commit, it is used for rarely written tables only.
+ */
+public class TableVersionTrigger implements Trigger {
+
+    private String tableName;
+
+    @Override
+    public void init(Connection conn, String schemaName, String triggerName, String tableName, boolean before, int type) {
+        this.tableName = tableName;
+    }
+
+    @Override
+    public void fire(Connection conn, Object[] oldRow, Object[] newRow) throws SQLException {
+        try (PreparedStatement statement = conn.prepareStatement("update TABLE_VERSION set VERSION = VERSION + 1 where upper(TABLE_NAME) = upper(?)")) {
+            statement.setString(1, tableName);
+            statement.executeUpdate();
+        }
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public void remove() {
+    }
+
+}
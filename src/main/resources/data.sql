@@ -28,6 +28,10 @@ INSERT INTO STUDENT (STUDENT_NAME, STATE, STANDARD, DIVISION) VALUES ('Zi,lly',
 INSERT INTO STUDENT (STUDENT_NAME, STATE, STANDARD, DIVISION) VALUES ('Hilly', 'WD', '8th', 'A');
 INSERT INTO STUDENT (STUDENT_NAME, STATE, STANDARD, DIVISION) VALUES ('Tilly', 'NY', '9th', 'B');
 
-INSERT INTO PRE_DEFINED_SQL (SQL_ID, SQL_TEXT, PARAM_DEFAULT_VALUES, IS_ACTIVE) VALUES ('get_b_div_students', 'SELECT * FROM STUDENT WHERE DIVISION=''B''', null, 'Y');
-INSERT INTO PRE_DEFINED_SQL (SQL_ID, SQL_TEXT, PARAM_DEFAULT_VALUES, IS_ACTIVE) VALUES ('get_students_by_standard', 'SELECT * FROM STUDENT WHERE STANDARD = #{std}', 'std=7th', 'Y');
-INSERT INTO PRE_DEFINED_SQL (SQL_ID, SQL_TEXT, PARAM_DEFAULT_VALUES, IS_ACTIVE) VALUES ('get_students_by_state_div', 'SELECT * FROM STUDENT WHERE STATE = #{state} AND DIVISION = #{div}', 'state=WD,div=A', 'Y');
+INSERT INTO PRE_DEFINED_SQL (SQL_ID, SQL_TEXT, PARAM_DEFAULT_VALUES, SOURCE_TABLES, REFRESH_CRON, IS_ACTIVE) VALUES ('get_b_div_students', 'SELECT * FROM STUDENT WHERE DIVISION=''B''', null, 'STUDENT', null, 'Y');
+INSERT INTO PRE_DEFINED_SQL (SQL_ID, SQL_TEXT, PARAM_DEFAULT_VALUES, SOURCE_TABLES, REFRESH_CRON, IS_ACTIVE) VALUES ('get_students_by_standard', 'SELECT * FROM STUDENT WHERE STANDARD = #{std}', 'std=7th', 'STUDENT', '0 */5 * * * *', 'Y');
+INSERT INTO PRE_DEFINED_SQL (SQL_ID, SQL_TEXT, PARAM_DEFAULT_VALUES, SOURCE_TABLES, REFRESH_CRON, IS_ACTIVE) VALUES ('get_students_by_state_div', 'SELECT * FROM STUDENT WHERE STATE = #{state} AND DIVISION = #{div}', 'state=WD,div=A', 'STUDENT', null, 'Y');
+
+INSERT INTO TABLE_VERSION (TABLE_NAME, VERSION) VALUES ('CITY', 1);
+INSERT INTO TABLE_VERSION (TABLE_NAME, VERSION) VALUES ('STUDENT', 1);
+INSERT INTO TABLE_VERSION (TABLE_NAME, VERSION) VALUES ('PRE_DEFINED_SQL', 1);
@@ -17,8 +17,18 @@
 drop table if exists CITY;
 drop table if exists STUDENT;
 drop table if exists PRE_DEFINED_SQL;
+drop table if exists TABLE_VERSION;
 
 create table CITY (id int primary key auto_increment, name varchar, state varchar, country varchar);
 create table STUDENT (id int primary key auto_increment, student_name varchar, state varchar, standard varchar, division varchar);
-create table PRE_DEFINED_SQL (id int primary key auto_increment, sql_id varchar, sql_text varchar, param_default_values varchar, is_active varchar);
+create table PRE_DEFINED_SQL (id int primary key auto_increment, sql_id varchar, sql_text varchar, param_default_values varchar, source_tables varchar, refresh_cron varchar, is_active varchar);
+-- change tracking: VERSION of TABLE_NAME is incremented after every committed change.
+-- Bulk ingestion increments it in its own short transaction after each chunk. Other writers to CITY and STUDENT
+-- have to run update TABLE_VERSION set VERSION = VERSION + 1 where TABLE_NAME = '...' after their commit.
+-- A trigger like the one of PRE_DEFINED_SQL would track every writer, but it fires once per row of a JDBC batch
+-- and holds the lock on the TABLE_VERSION row until commit, so all writers of that table would run one after another.
+create table TABLE_VERSION (table_name varchar primary key, version bigint not null default 1);
+
+-- PRE_DEFINED_SQL is edited by hand and never ingested, a trigger costs nothing there
+create trigger PRE_DEFINED_SQL_VERSION after insert, update, delete on PRE_DEFINED_SQL for each statement call "com.itworks.dbapi.trigger.TableVersionTrigger";
 
@@ -0,0 +1,130 @@
+/*
+ *    Copyright 2015-2021 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.itworks.dbapi.controller;
+
+import com.itworks.dbapi.service.TableVersionService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.web.servlet.MockMvc;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * ETag and If-None-Match handling of table-data and sql-id-data.
+ */
+@SpringBootTest(properties = "dbapi.csv-cache.max-size=0")
+@AutoConfigureMockMvc
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_CLASS)
+class TableDataETagTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private TableVersionService tableVersionService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @BeforeEach
+    void loadTableVersions() {
+        tableVersionService.refreshTableVersions();
+    }
+
+    @Test
+    void unchangedTableIsAnsweredWithNotModified() throws Exception {
+        String eTag = getETag("/json/table-data/CITY");
+
+        mockMvc.perform(get("/json/table-data/CITY").header(HttpHeaders.IF_NONE_MATCH, eTag))
+                .andExpect(status().isNotModified());
+        mockMvc.perform(get("/csv/table-data/CITY").header(HttpHeaders.IF_NONE_MATCH, eTag))
+                .andExpect(status().isNotModified());
+    }
+
+    @Test
+    void differentFiltersGetDifferentETags() throws Exception {
+        String allCitiesETag = getETag("/json/table-data/CITY");
+        String californiaETag = getETag("/json/table-data/CITY?STATE=CA");
+        String newYorkETag = getETag("/json/table-data/CITY?STATE=NY");
+
+        assertThat(californiaETag).isNotEqualTo(allCitiesETag).isNotEqualTo(newYorkETag);
+        mockMvc.perform(get("/json/table-data/CITY").param("STATE", "NY").header(HttpHeaders.IF_NONE_MATCH, californiaETag))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, newYorkETag));
+        mockMvc.perform(get("/json/table-data/CITY").param("STATE", "CA").header(HttpHeaders.IF_NONE_MATCH, californiaETag))
+                .andExpect(status().isNotModified());
+    }
+
+    @Test
+    void parameterOrderDoesNotChangeETag() throws Exception {
+        assertThat(getETag("/json/table-data/STUDENT?STATE=CA&DIVISION=B"))
+                .isEqualTo(getETag("/json/table-data/STUDENT?DIVISION=B&STATE=CA"));
+    }
+
+    @Test
+    void tableChangeInvalidatesETag() throws Exception {
+        String tableETag = getETag("/json/table-data/CITY");
+        String sqlIdETag = getETag("/json/sql-id-data/get_b_div_students");
+        String studentSqlIdETag = getETag("/json/sql-id-data/get_students_by_state_div?state=CA&div=B");
+
+        // writers bump TABLE_VERSION of the changed table after commit, STUDENT stays unchanged
+        jdbcTemplate.update("insert into CITY (NAME, STATE, COUNTRY) values ('Pune', 'MH', 'IN')");
+        tableVersionService.bumpVersion("CITY");
+
+        mockMvc.perform(get("/json/table-data/CITY").header(HttpHeaders.IF_NONE_MATCH, tableETag))
+                .andExpect(status().isOk());
+        mockMvc.perform(get("/json/sql-id-data/get_students_by_state_div").param("state", "CA").param("div", "B")
+                        .header(HttpHeaders.IF_NONE_MATCH, studentSqlIdETag))
+                .andExpect(status().isNotModified());
+
+        jdbcTemplate.update("update STUDENT set DIVISION = 'B' where STUDENT_NAME = 'Ally'");
+        tableVersionService.bumpVersion("STUDENT");
+
+        mockMvc.perform(get("/json/sql-id-data/get_b_div_students").header(HttpHeaders.IF_NONE_MATCH, sqlIdETag))
+                .andExpect(status().isOk());
+    }
+
+    @Test
+    void definitionChangeInvalidatesSQLIdETag() throws Exception {
+        String sqlIdETag = getETag("/json/sql-id-data/get_students_by_state_div?state=NY&div=A");
+
+        // the PRE_DEFINED_SQL_VERSION trigger bumps TABLE_VERSION of PRE_DEFINED_SQL
+        jdbcTemplate.update("update PRE_DEFINED_SQL set SQL_TEXT = SQL_TEXT || ' ORDER BY ID' where SQL_ID = 'get_students_by_state_div'");
+        tableVersionService.refreshTableVersions();
+
+        mockMvc.perform(get("/json/sql-id-data/get_students_by_state_div").param("state", "NY").param("div", "A")
+                        .header(HttpHeaders.IF_NONE_MATCH, sqlIdETag))
+                .andExpect(status().isOk());
+    }
+
+    private String getETag(String uri) throws Exception {
+        String eTag = mockMvc.perform(get(uri))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+        assertThat(eTag).isNotNull();
+        return eTag;
+    }
+
+}
@@ -0,0 +1,129 @@
+package com.itworks.dbapi.service;
+
+import com.itworks.dbapi.pojo.IngestionErrorRow;
+import com.itworks.dbapi.pojo.IngestionReport;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Chunked ingestion with small batches and chunks, so failed chunks are retried row by row.
+ */
+@SpringBootTest(properties = {"dbapi.ingest.batch-size=2", "dbapi.ingest.chunk-size=3"})
+@AutoConfigureMockMvc
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_CLASS)
+class BulkIngestionServiceTest {
+
+    @Autowired
+    private BulkIngestionService bulkIngestionService;
+
+    @Autowired
+    private TableVersionService tableVersionService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Test
+    void failedChunksAreRetriedRowByRowWithCSVRowNumbers() throws IOException {
+        tableVersionService.refreshTableVersions();
+        long versionBefore = tableVersionService.getTableVersion("CITY");
+        String csv = "ID,NAME,STATE,COUNTRY\n"
+                + "101,Pune,MH,IN\n"      // row 2, first chunk
+                + "102,Nagpur,MH,IN\n"    // row 3
+                + "101,Mumbai,MH,IN\n"    // row 4, duplicate key fails the first chunk
+                + "104,Nashik,MH,IN\n"    // row 5, second chunk
+                + "x,Satara,MH,IN\n"      // row 6, not a number fails the second chunk
+                + "105,Sangli,MH,IN\n"    // row 7
+                + "106,Karad\n"           // row 8, wrong number of columns is rejected while reading
+                + "107,Wai,MH,IN\n";      // row 9, last chunk
+
+        IngestionReport report = bulkIngestionService.ingestCSV("city", new StringReader(csv));
+
+        assertThat(report.getRowsRead()).isEqualTo(8);
+        assertThat(report.getRowsInserted()).isEqualTo(5);
+        assertThat(report.getRowsFailed()).isEqualTo(3);
+        assertThat(report.getChunksCommitted()).isEqualTo(1);
+        assertThat(report.getErrorRows().stream().map(IngestionErrorRow::getRowNumber).collect(Collectors.toList()))
+                .containsExactlyInAnyOrder(4L, 6L, 8L);
+        assertThat(jdbcTemplate.queryForList("select NAME from CITY where ID between 101 and 107 order by ID", String.class))
+                .containsExactly("Pune", "Nagpur", "Nashik", "Sangli", "Wai");
+        // one increment after each of the three chunks, CITY has no version trigger
+        assertThat(tableVersionService.getTableVersion("CITY")).isEqualTo(versionBefore + 3);
+    }
+
+    @Test
+    void failedNDJSONLinesAreReportedWithLineNumbers() throws IOException {
+        String ndjson = "{\"ID\":201,\"NAME\":\"Pune\",\"STATE\":\"MH\",\"COUNTRY\":\"IN\"}\n"
+                + "\n"
+                + "{\"ID\":202,\"NAME\":\"Nagpur\"\n"                  // line 3, invalid JSON
+                + "{\"ID\":203,\"TOWN\":\"Nashik\"}\n"                  // line 4, unknown column
+                + "{\"id\":201,\"name\":\"Mumbai\"}\n"                  // line 5, duplicate key
+                + "{\"id\":205,\"name\":\"Wai\",\"state\":\"MH\"}\n";   // line 6
+
+        IngestionReport report = bulkIngestionService.ingestNDJSON("CITY", new StringReader(ndjson));
+
+        assertThat(report.getRowsRead()).isEqualTo(5);
+        assertThat(report.getRowsInserted()).isEqualTo(2);
+        assertThat(report.getErrorRows().stream().map(IngestionErrorRow::getRowNumber).collect(Collectors.toList()))
+                .containsExactlyInAnyOrder(3L, 4L, 5L);
+        assertThat(jdbcTemplate.queryForList("select NAME from CITY where ID between 201 and 205 order by ID", String.class))
+                .containsExactly("Pune", "Wai");
+    }
+
+    @Test
+    void ingestsThroughCSVAndJSONEndpoints() throws Exception {
+        mockMvc.perform(post("/csv/table-data/CITY").contentType("text/csv")
+                        .content("ID,NAME,STATE,COUNTRY\n301,Pune,MH,IN\n302,Wai,MH,IN\n"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.rowsInserted").value(2))
+                .andExpect(jsonPath("$.rowsFailed").value(0));
+        mockMvc.perform(post("/json/table-data/CITY").contentType("application/x-ndjson")
+                        .content("{\"ID\":303,\"NAME\":\"Karad\"}\n{\"ID\":301,\"NAME\":\"Pune\"}\n"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.rowsInserted").value(1))
+                .andExpect(jsonPath("$.errorRows[0].rowNumber").value(2));
+    }
+
+    @Test
+    void rejectsUnknownColumnsAndTables() {
+        assertThatThrownBy(() -> bulkIngestionService.ingestCSV("CITY", new StringReader("ID,TOWN\n1,Pune\n")))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("TOWN");
+        assertThatThrownBy(() -> bulkIngestionService.ingestCSV("NO_SUCH_TABLE", new StringReader("ID\n1\n")))
+                .isInstanceOf(IllegalArgumentException.class);
+        // INFORMATION_SCHEMA tables are not in the current schema
+        assertThatThrownBy(() -> bulkIngestionService.ingestCSV("COLUMNS", new StringReader("TABLE_NAME\nCITY\n")))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("Unknown table");
+    }
+
+    @Test
+    void rejectsProtectedTables() {
+        assertThatThrownBy(() -> bulkIngestionService.ingestCSV("pre_defined_sql",
+                new StringReader("SQL_ID,SQL_TEXT,IS_ACTIVE\nall_users,SELECT * FROM INFORMATION_SCHEMA.USERS,Y\n")))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("not allowed");
+        assertThatThrownBy(() -> bulkIngestionService.ingestNDJSON("TABLE_VERSION", new StringReader("{\"TABLE_NAME\":\"CITY\",\"VERSION\":0}\n")))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("not allowed");
+        assertThat(jdbcTemplate.queryForObject("select count(*) from PRE_DEFINED_SQL where SQL_ID = 'all_users'", Integer.class)).isZero();
+    }
+
+}
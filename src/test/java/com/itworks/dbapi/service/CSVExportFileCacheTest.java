@@ -0,0 +1,279 @@
+package com.itworks.dbapi.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class CSVExportFileCacheTest {
+
+    private static final String CACHE_KEY = "table-data/CITY|\"1-abc\"|{}|UTF-8";
+    private static final String E_TAG = "\"1-abc\"";
+    private static final String EXPORT = "ID,NAME\n1,Pune\n2,Dug\n";
+
+    @TempDir
+    Path cacheRoot;
+
+    private CSVExportFileCache cache;
+    private final AtomicInteger renders = new AtomicInteger();
+
+    @BeforeEach
+    void createCache() throws IOException {
+        cache = new CSVExportFileCache(cacheRoot.toString(), DataSize.ofMegabytes(1), "test");
+        cache.initCacheDirectory();
+    }
+
+    @AfterEach
+    void removeCache() throws IOException {
+        cache.removeCacheDirectory();
+    }
+
+    @Test
+    void rendersOnceAndServesFromCache() throws IOException {
+        MockHttpServletResponse rendered = renderAndServe(new MockHttpServletRequest());
+        assertThat(rendered.getStatus()).isEqualTo(200);
+        assertThat(rendered.getContentAsString()).isEqualTo(EXPORT);
+        assertThat(rendered.getHeader(HttpHeaders.ACCEPT_RANGES)).isEqualTo("bytes");
+
+        MockHttpServletResponse cached = new MockHttpServletResponse();
+        assertThat(cache.serveIfCached(CACHE_KEY, E_TAG, new MockHttpServletRequest(), cached)).isTrue();
+        assertThat(cached.getContentAsString()).isEqualTo(EXPORT);
+        assertThat(renders.get()).isEqualTo(1);
+        assertThat(cache.serveIfCached("other" + CACHE_KEY, E_TAG, new MockHttpServletRequest(), new MockHttpServletResponse())).isFalse();
+    }
+
+    @Test
+    void servesSingleRangeAsPartialContent() throws IOException {
+        renderAndServe(new MockHttpServletRequest());
+
+        MockHttpServletResponse response = serveCached(rangeRequest("bytes=8-14"));
+        assertThat(response.getStatus()).isEqualTo(206);
+        assertThat(response.getHeader(HttpHeaders.CONTENT_RANGE)).isEqualTo("bytes 8-14/" + EXPORT.length());
+        assertThat(response.getContentAsString()).isEqualTo(EXPORT.substring(8, 15));
+        assertThat(response.getContentLengthLong()).isEqualTo(7);
+
+        MockHttpServletResponse suffix = serveCached(rangeRequest("bytes=-4"));
+        assertThat(suffix.getStatus()).isEqualTo(206);
+        assertThat(suffix.getContentAsString()).isEqualTo("Dug\n");
+    }
+
+    @Test
+    void rangeIsAppliedWhileRendering() throws IOException {
+        MockHttpServletResponse response = renderAndServe(rangeRequest("bytes=0-6"));
+        assertThat(response.getStatus()).isEqualTo(206);
+        assertThat(response.getContentAsString()).isEqualTo("ID,NAME");
+    }
+
+    @Test
+    void unsatisfiableRangeIsRejected() throws IOException {
+        renderAndServe(new MockHttpServletRequest());
+
+        MockHttpServletResponse response = serveCached(rangeRequest("bytes=" + EXPORT.length() + "-"));
+        assertThat(response.getStatus()).isEqualTo(416);
+        assertThat(response.getHeader(HttpHeaders.CONTENT_RANGE)).isEqualTo("bytes */" + EXPORT.length());
+        assertThat(response.getContentAsByteArray()).isEmpty();
+    }
+
+    @Test
+    void unparsableOrMultipleRangesGetWholeFile() throws IOException {
+        renderAndServe(new MockHttpServletRequest());
+
+        for (String rangeHeader : new String[]{"bytes=abc", "bytes=0-1,4-5"}) {
+            MockHttpServletResponse response = serveCached(rangeRequest(rangeHeader));
+            assertThat(response.getStatus()).isEqualTo(200);
+            assertThat(response.getHeader(HttpHeaders.CONTENT_RANGE)).isNull();
+            assertThat(response.getContentAsString()).isEqualTo(EXPORT);
+        }
+    }
+
+    @Test
+    void ifRangeWithCurrentETagGetsRange() throws IOException {
+        renderAndServe(new MockHttpServletRequest());
+
+        MockHttpServletRequest request = rangeRequest("bytes=0-1");
+        request.addHeader(HttpHeaders.IF_RANGE, E_TAG);
+        MockHttpServletResponse response = serveCached(request);
+        assertThat(response.getStatus()).isEqualTo(206);
+        assertThat(response.getContentAsString()).isEqualTo("ID");
+    }
+
+    @Test
+    void ifRangeWithStaleETagGetsWholeFile() throws IOException {
+        renderAndServe(new MockHttpServletRequest());
+
+        MockHttpServletRequest request = rangeRequest("bytes=0-1");
+        request.addHeader(HttpHeaders.IF_RANGE, "\"0-stale\"");
+        MockHttpServletResponse response = serveCached(request);
+        assertThat(response.getStatus()).isEqualTo(200);
+        assertThat(response.getContentAsString()).isEqualTo(EXPORT);
+    }
+
+    @Test
+    void largeExportIsHandedToSendfile() throws IOException {
+        StringBuilder largeExport = new StringBuilder("ID,NAME\n");
+        for (int i = 0; largeExport.length() < CSVExportFileCache.MIN_SENDFILE_BYTES * 2; i++) {
+            largeExport.append(i).append(",City ").append(i).append('\n');
+        }
+        cache.renderAndServe(CACHE_KEY, E_TAG, StandardCharsets.UTF_8, writer -> writer.write(largeExport.toString()),
+                new MockHttpServletRequest(), new MockHttpServletResponse());
+
+        MockHttpServletRequest request = rangeRequest("bytes=100-");
+        request.setAttribute(CSVExportFileCache.SENDFILE_SUPPORT_ATTR, Boolean.TRUE);
+        MockHttpServletResponse response = serveCached(request);
+
+        long fileLength = largeExport.length();
+        assertThat(response.getStatus()).isEqualTo(206);
+        assertThat(response.getContentLengthLong()).isEqualTo(fileLength - 100);
+        assertThat(response.getContentAsByteArray()).isEmpty();
+        assertThat(request.getAttribute(CSVExportFileCache.SENDFILE_START_ATTR)).isEqualTo(100L);
+        // Tomcat's sendfile end is exclusive
+        assertThat(request.getAttribute(CSVExportFileCache.SENDFILE_END_ATTR)).isEqualTo(fileLength);
+        Path sentFile = Paths.get((String) request.getAttribute(CSVExportFileCache.SENDFILE_FILENAME_ATTR));
+        assertThat(new String(Files.readAllBytes(sentFile), StandardCharsets.UTF_8)).isEqualTo(largeExport.toString());
+    }
+
+    @Test
+    void smallExportIsWrittenEvenWithSendfile() throws IOException {
+        renderAndServe(new MockHttpServletRequest());
+
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setAttribute(CSVExportFileCache.SENDFILE_SUPPORT_ATTR, Boolean.TRUE);
+        MockHttpServletResponse response = serveCached(request);
+
+        assertThat(response.getContentAsString()).isEqualTo(EXPORT);
+        assertThat(request.getAttribute(CSVExportFileCache.SENDFILE_FILENAME_ATTR)).isNull();
+    }
+
+    @Test
+    void initDeletesOnlyCacheFilesOfItsInstance() throws IOException {
+        // left by a killed instance with the same instance id
+        Path instanceDirectory = Files.createDirectories(cacheRoot.resolve("instance-restarted"));
+        Path leftoverExport = write(instanceDirectory.resolve(DigestUtil.sha256Hex(CACHE_KEY) + ".csv"));
+        Path leftoverRender = write(instanceDirectory.resolve("render-123.tmp"));
+        Path foreignFile = write(instanceDirectory.resolve("notes.csv"));
+        write(instanceDirectory.resolve(".lock"));
+
+        CSVExportFileCache restarted = new CSVExportFileCache(cacheRoot.toString(), DataSize.ofMegabytes(1), "restarted");
+        restarted.initCacheDirectory();
+
+        assertThat(leftoverExport).doesNotExist();
+        assertThat(leftoverRender).doesNotExist();
+        assertThat(foreignFile).exists();
+        assertThat(restarted.serveIfCached(CACHE_KEY, E_TAG, new MockHttpServletRequest(), new MockHttpServletResponse())).isFalse();
+        restarted.removeCacheDirectory();
+    }
+
+    @Test
+    void initRemovesDirectoriesOfStoppedInstancesOnly() throws IOException {
+        renderAndServe(new MockHttpServletRequest());
+        Path runningDirectory = cacheRoot.resolve("instance-test");
+        Path runningExport = runningDirectory.resolve(DigestUtil.sha256Hex(CACHE_KEY) + ".csv");
+        makeOld(runningDirectory.resolve(".lock"));
+
+        Path crashedDirectory = Files.createDirectories(cacheRoot.resolve("instance-4711"));
+        write(crashedDirectory.resolve(DigestUtil.sha256Hex("a") + ".csv"));
+        makeOld(write(crashedDirectory.resolve(".lock")));
+
+        Path crashedWithNotesDirectory = Files.createDirectories(cacheRoot.resolve("instance-4712"));
+        Path crashedExport = write(crashedWithNotesDirectory.resolve(DigestUtil.sha256Hex("b") + ".csv"));
+        Path notes = write(crashedWithNotesDirectory.resolve("notes.txt"));
+        makeOld(crashedWithNotesDirectory);
+
+        Path startingDirectory = Files.createDirectories(cacheRoot.resolve("instance-4713"));
+        Path startingExport = write(startingDirectory.resolve(DigestUtil.sha256Hex("c") + ".csv"));
+        write(startingDirectory.resolve(".lock"));
+
+        CSVExportFileCache newInstance = new CSVExportFileCache(cacheRoot.toString(), DataSize.ofMegabytes(1), "new");
+        newInstance.initCacheDirectory();
+
+        assertThat(runningExport).exists();
+        assertThat(cache.serveIfCached(CACHE_KEY, E_TAG, new MockHttpServletRequest(), new MockHttpServletResponse())).isTrue();
+        assertThat(crashedDirectory).doesNotExist();
+        assertThat(crashedExport).doesNotExist();
+        assertThat(notes).exists();
+        assertThat(startingExport).exists();
+        newInstance.removeCacheDirectory();
+    }
+
+    @Test
+    void secondInstanceWithSameIdIsRejected() {
+        CSVExportFileCache sameId = new CSVExportFileCache(cacheRoot.toString(), DataSize.ofMegabytes(1), "test");
+
+        assertThatThrownBy(sameId::initCacheDirectory)
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("dbapi.csv-cache.instance-id");
+    }
+
+    @Test
+    void shutdownRemovesInstanceDirectory() throws IOException {
+        renderAndServe(new MockHttpServletRequest());
+
+        cache.removeCacheDirectory();
+
+        assertThat(cacheRoot.resolve("instance-test")).doesNotExist();
+    }
+
+    @Test
+    void evictsLeastRecentlyUsedOverBudget() throws IOException {
+        CSVExportFileCache smallCache = new CSVExportFileCache(cacheRoot.toString(), DataSize.ofBytes(EXPORT.length() * 2L), "small");
+        smallCache.initCacheDirectory();
+        for (String cacheKey : new String[]{"a", "b"}) {
+            smallCache.renderAndServe(cacheKey, E_TAG, StandardCharsets.UTF_8, writer -> writer.write(EXPORT),
+                    new MockHttpServletRequest(), new MockHttpServletResponse());
+        }
+        // "a" becomes the most recently used, so "b" is evicted by "c"
+        assertThat(smallCache.serveIfCached("a", E_TAG, new MockHttpServletRequest(), new MockHttpServletResponse())).isTrue();
+        smallCache.renderAndServe("c", E_TAG, StandardCharsets.UTF_8, writer -> writer.write(EXPORT),
+                new MockHttpServletRequest(), new MockHttpServletResponse());
+
+        assertThat(smallCache.serveIfCached("a", E_TAG, new MockHttpServletRequest(), new MockHttpServletResponse())).isTrue();
+        assertThat(smallCache.serveIfCached("b", E_TAG, new MockHttpServletRequest(), new MockHttpServletResponse())).isFalse();
+        assertThat(smallCache.serveIfCached("c", E_TAG, new MockHttpServletRequest(), new MockHttpServletResponse())).isTrue();
+        smallCache.removeCacheDirectory();
+    }
+
+    private static Path write(Path file) throws IOException {
+        return Files.write(file, EXPORT.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static Path makeOld(Path file) throws IOException {
+        return Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis() - 3_600_000));
+    }
+
+    private MockHttpServletResponse renderAndServe(MockHttpServletRequest request) throws IOException {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        cache.renderAndServe(CACHE_KEY, E_TAG, StandardCharsets.UTF_8, writer -> {
+            renders.incrementAndGet();
+            writer.write(EXPORT);
+        }, request, response);
+        return response;
+    }
+
+    private MockHttpServletResponse serveCached(MockHttpServletRequest request) throws IOException {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        assertThat(cache.serveIfCached(CACHE_KEY, E_TAG, request, response)).isTrue();
+        return response;
+    }
+
+    private static MockHttpServletRequest rangeRequest(String rangeHeader) {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.addHeader(HttpHeaders.RANGE, rangeHeader);
+        return request;
+    }
+
+}
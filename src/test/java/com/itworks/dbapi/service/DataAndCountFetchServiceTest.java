@@ -0,0 +1,48 @@
+package com.itworks.dbapi.service;
+
+import com.itworks.dbapi.mapper.GenericMapper;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+class DataAndCountFetchServiceTest {
+
+    private final GenericMapper genericMapper = mock(GenericMapper.class);
+    private final PartitionedTableScanService partitionedTableScanService = mock(PartitionedTableScanService.class);
+    private final DataAndCountFetchService dataAndCountFetchService =
+            new DataAndCountFetchService(genericMapper, partitionedTableScanService, new SQLSnapshotStore());
+
+    @Test
+    void paginatedParallelRequestIsScannedSequentiallyWithoutScanParameters() {
+        Map<String, String> parameters = new LinkedHashMap<>();
+        parameters.put("parallel", "4");
+        parameters.put("keyColumn", "ID");
+        parameters.put("ordered", "false");
+        parameters.put("STATE", "CA");
+        parameters.put("limit", "10");
+
+        dataAndCountFetchService.getDataForTableWithSimpleFilter("CITY", parameters);
+
+        Map<String, String> filters = new LinkedHashMap<>();
+        filters.put("STATE", "CA");
+        filters.put("limit", "10");
+        verify(genericMapper).getAllTableDataWithSimpleFilter("CITY", filters);
+        verify(partitionedTableScanService, never()).getDataForTableWithPartitionedScan(anyString(), anyMap());
+    }
+
+    @Test
+    void requestWithoutParametersIsScannedSequentially() {
+        dataAndCountFetchService.getDataForTableWithSimpleFilter("CITY", Collections.emptyMap());
+
+        verify(genericMapper).getAllTableDataWithSimpleFilter("CITY", Collections.emptyMap());
+    }
+
+}
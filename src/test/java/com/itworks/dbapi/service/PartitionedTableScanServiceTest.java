@@ -0,0 +1,143 @@
+package com.itworks.dbapi.service;
+
+import com.itworks.dbapi.mapper.GenericMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class PartitionedTableScanServiceTest {
+
+    private final GenericMapper genericMapper = mock(GenericMapper.class);
+    private final PartitionedTableScanService scanService = new PartitionedTableScanService(genericMapper, 4, 8, 10, 2);
+
+    @AfterEach
+    void shutdown() {
+        scanService.shutdown();
+    }
+
+    @Test
+    void rangesAreContiguousAndLastHasNoUpperBound() {
+        List<PartitionedTableScanService.KeyRange> keyRanges = PartitionedTableScanService.splitKeyRange(1, 10, 4);
+
+        assertThat(keyRanges).extracting(PartitionedTableScanService.KeyRange::toString)
+                .containsExactly("[1, 4)", "[4, 7)", "[7, 10)", "[10, )");
+    }
+
+    @Test
+    void everyKeyIsInExactlyOneRange() {
+        for (int partitions = 1; partitions <= 9; partitions++) {
+            List<PartitionedTableScanService.KeyRange> keyRanges = PartitionedTableScanService.splitKeyRange(-3, 17, partitions);
+            assertThat(keyRanges).hasSizeBetween(1, partitions);
+            for (long key = -3; key <= 17; key++) {
+                long matchingRanges = 0;
+                for (PartitionedTableScanService.KeyRange keyRange : keyRanges) {
+                    if (key >= keyRange.getLowerBound() && (null == keyRange.getUpperBound() || key < keyRange.getUpperBound())) {
+                        matchingRanges++;
+                    }
+                }
+                assertThat(matchingRanges).as("key %d with %d partitions", key, partitions).isEqualTo(1);
+            }
+        }
+    }
+
+    @Test
+    void noEmptyRangesWhenSpanIsSmallerThanPartitions() {
+        assertThat(PartitionedTableScanService.splitKeyRange(5, 5, 4)).extracting(PartitionedTableScanService.KeyRange::toString)
+                .containsExactly("[5, )");
+        // width 2 covers 5 keys in 3 ranges, a 4th range would start above the max key
+        assertThat(PartitionedTableScanService.splitKeyRange(0, 4, 4)).extracting(PartitionedTableScanService.KeyRange::toString)
+                .containsExactly("[0, 2)", "[2, 4)", "[4, )");
+    }
+
+    @Test
+    void fullBigintRangeDoesNotOverflow() {
+        List<PartitionedTableScanService.KeyRange> keyRanges = PartitionedTableScanService.splitKeyRange(Long.MIN_VALUE, Long.MAX_VALUE, 4);
+
+        assertThat(keyRanges).hasSize(4);
+        assertThat(keyRanges.get(0).getLowerBound()).isEqualTo(Long.MIN_VALUE);
+        assertThat(keyRanges.get(2).getUpperBound()).isEqualTo(keyRanges.get(3).getLowerBound());
+        assertThat(keyRanges.get(3).getLowerBound()).isEqualTo(1L << 62);
+        assertThat(keyRanges.get(3).getUpperBound()).isNull();
+    }
+
+    @Test
+    void onlyIntegerKeysAreAccepted() {
+        assertThat(PartitionedTableScanService.toIntegralKey(7, "ID")).isEqualTo(7L);
+        assertThat(PartitionedTableScanService.toIntegralKey(7L, "ID")).isEqualTo(7L);
+        assertThat(PartitionedTableScanService.toIntegralKey(new BigDecimal("7"), "ID")).isEqualTo(7L);
+        assertThat(PartitionedTableScanService.toIntegralKey(BigInteger.valueOf(7), "ID")).isEqualTo(7L);
+
+        assertThatThrownBy(() -> PartitionedTableScanService.toIntegralKey(new BigDecimal("7.00"), "PRICE"))
+                .isInstanceOf(IllegalArgumentException.class).hasMessageContaining("integer");
+        assertThatThrownBy(() -> PartitionedTableScanService.toIntegralKey(10.5d, "PRICE"))
+                .isInstanceOf(IllegalArgumentException.class).hasMessageContaining("integer");
+        assertThatThrownBy(() -> PartitionedTableScanService.toIntegralKey("A", "NAME"))
+                .isInstanceOf(IllegalArgumentException.class).hasMessageContaining("integer");
+        assertThatThrownBy(() -> PartitionedTableScanService.toIntegralKey(BigInteger.ONE.shiftLeft(64), "ID"))
+                .isInstanceOf(IllegalArgumentException.class).hasMessageContaining("BIGINT");
+    }
+
+    @Test
+    void scanReadsNullKeysAfterTheRanges() {
+        when(genericMapper.selectKeyBoundsForTable("CITY", "ID")).thenReturn(bounds(1, 4));
+        when(genericMapper.getTableDataForKeyRangeWithSimpleFilter(eq("CITY"), anyMap(), eq("ID"), anyLong(), any()))
+                .thenAnswer(invocation -> rows("range " + invocation.getArgument(3)));
+        when(genericMapper.getTableDataForNullKeyWithSimpleFilter(eq("CITY"), anyMap(), eq("ID"))).thenReturn(rows("null key"));
+
+        List<LinkedHashMap> resultData = scanService.getDataForTableWithPartitionedScan("CITY", parameters("2"));
+
+        assertThat(resultData).extracting(row -> row.get("ROW")).containsExactly("range 1", "range 3", "null key");
+        verify(genericMapper).getTableDataForKeyRangeWithSimpleFilter(eq("CITY"), eq(Collections.singletonMap("STATE", "CA")), eq("ID"), eq(3L), isNull());
+    }
+
+    @Test
+    void tableWithOnlyNullKeysIsStillRead() {
+        when(genericMapper.selectKeyBoundsForTable("CITY", "ID")).thenReturn(bounds(null, null));
+        when(genericMapper.getTableDataForNullKeyWithSimpleFilter(eq("CITY"), anyMap(), eq("ID"))).thenReturn(rows("null key"));
+
+        assertThat(scanService.getDataForTableWithPartitionedScan("CITY", parameters("4"))).hasSize(1);
+        verify(genericMapper, never()).getTableDataForKeyRangeWithSimpleFilter(any(), anyMap(), any(), anyLong(), any());
+    }
+
+    private static Map<String, String> parameters(String parallel) {
+        Map<String, String> parameters = new LinkedHashMap<>();
+        parameters.put("parallel", parallel);
+        parameters.put("STATE", "CA");
+        return parameters;
+    }
+
+    private static LinkedHashMap<String, Object> bounds(Object minKey, Object maxKey) {
+        LinkedHashMap<String, Object> bounds = new LinkedHashMap<>();
+        bounds.put("MIN_KEY", minKey);
+        bounds.put("MAX_KEY", maxKey);
+        return bounds;
+    }
+
+    private static List<LinkedHashMap> rows(String value) {
+        LinkedHashMap<String, Object> row = new LinkedHashMap<>();
+        row.put("ROW", value);
+        List<LinkedHashMap> rows = new ArrayList<>();
+        rows.add(row);
+        return rows;
+    }
+
+}
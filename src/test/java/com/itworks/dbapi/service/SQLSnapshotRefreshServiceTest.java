@@ -0,0 +1,165 @@
+package com.itworks.dbapi.service;
+
+import com.itworks.dbapi.mapper.GenericMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.scheduling.Trigger;
+import org.springframework.scheduling.support.CronTrigger;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.after;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class SQLSnapshotRefreshServiceTest {
+
+    private static final String SQL_ID = "get_students_by_standard";
+
+    private final GenericMapper genericMapper = mock(GenericMapper.class);
+    private final DataAndCountFetchService dataAndCountFetchService = mock(DataAndCountFetchService.class);
+    private final TableVersionService tableVersionService = mock(TableVersionService.class);
+    private final TaskScheduler taskScheduler = mock(TaskScheduler.class);
+    private final SQLSnapshotStore sqlSnapshotStore = new SQLSnapshotStore();
+    private final List<ScheduledFuture<?>> scheduledFutures = new ArrayList<>();
+
+    private SQLSnapshotRefreshService refreshService;
+
+    @BeforeEach
+    void createService() {
+        when(taskScheduler.schedule(any(Runnable.class), any(Trigger.class))).thenAnswer(invocation -> {
+            ScheduledFuture<?> future = mock(ScheduledFuture.class);
+            scheduledFutures.add(future);
+            return future;
+        });
+        when(dataAndCountFetchService.getDataForSQLIdFromDatabase(eq(SQL_ID), anyMap())).thenReturn(new ArrayList<>());
+        when(tableVersionService.getSourceVersion(SQL_ID)).thenReturn("1.1");
+        refreshService = new SQLSnapshotRefreshService(genericMapper, dataAndCountFetchService, sqlSnapshotStore,
+                tableVersionService, taskScheduler, 1);
+    }
+
+    @AfterEach
+    void shutdown() {
+        refreshService.shutdown();
+    }
+
+    @Test
+    void changedCronIsRescheduled() {
+        definitionVersion(1L);
+        materialized("0 */5 * * * *");
+        refreshService.scheduleSnapshotRefresh();
+        verify(dataAndCountFetchService, timeout(1000)).getDataForSQLIdFromDatabase(eq(SQL_ID), anyMap());
+
+        definitionVersion(2L);
+        materialized("0 0 * * * *");
+        refreshService.syncOnDefinitionChange();
+
+        ArgumentCaptor<Trigger> triggers = ArgumentCaptor.forClass(Trigger.class);
+        verify(taskScheduler, times(2)).schedule(any(Runnable.class), triggers.capture());
+        assertThat(((CronTrigger) triggers.getAllValues().get(0)).getExpression()).isEqualTo("0 */5 * * * *");
+        assertThat(((CronTrigger) triggers.getAllValues().get(1)).getExpression()).isEqualTo("0 0 * * * *");
+        verify(scheduledFutures.get(0)).cancel(false);
+        verify(scheduledFutures.get(1), never()).cancel(false);
+    }
+
+    @Test
+    void unchangedDefinitionIsNotReRun() {
+        definitionVersion(1L);
+        materialized("0 */5 * * * *");
+        refreshService.scheduleSnapshotRefresh();
+        verify(dataAndCountFetchService, timeout(1000)).getDataForSQLIdFromDatabase(eq(SQL_ID), anyMap());
+
+        refreshService.syncOnDefinitionChange();
+        refreshService.syncOnDefinitionChange();
+
+        verify(genericMapper, times(1)).selectMaterializedSQLIds();
+        verify(dataAndCountFetchService, after(200).times(1)).getDataForSQLIdFromDatabase(eq(SQL_ID), anyMap());
+
+        // a changed SQL_TEXT keeps the cron but re-runs the sql right away
+        definitionVersion(2L);
+        refreshService.syncOnDefinitionChange();
+        verify(dataAndCountFetchService, timeout(1000).times(2)).getDataForSQLIdFromDatabase(eq(SQL_ID), anyMap());
+        verify(taskScheduler, times(1)).schedule(any(Runnable.class), any(Trigger.class));
+    }
+
+    @Test
+    void deactivatedSQLIdIsUnscheduledAndItsSnapshotDropped() {
+        definitionVersion(1L);
+        materialized("0 */5 * * * *");
+        refreshService.scheduleSnapshotRefresh();
+        verify(dataAndCountFetchService, timeout(1000)).getDataForSQLIdFromDatabase(eq(SQL_ID), anyMap());
+        waitForSnapshot();
+
+        definitionVersion(2L);
+        when(genericMapper.selectMaterializedSQLIds()).thenReturn(Collections.<LinkedHashMap>emptyList());
+        refreshService.syncOnDefinitionChange();
+
+        verify(scheduledFutures.get(0)).cancel(false);
+        assertThat(sqlSnapshotStore.getSnapshot(SQL_ID, Collections.emptyMap())).isNull();
+    }
+
+    @Test
+    void unknownDefinitionVersionSyncsOnlyAtReady() {
+        definitionVersion(null);
+        materialized("0 */5 * * * *");
+        refreshService.scheduleSnapshotRefresh();
+        verify(dataAndCountFetchService, timeout(1000)).getDataForSQLIdFromDatabase(eq(SQL_ID), anyMap());
+
+        for (int i = 0; i < 5; i++) {
+            refreshService.syncOnDefinitionChange();
+        }
+
+        verify(genericMapper, times(1)).selectMaterializedSQLIds();
+        verify(taskScheduler, times(1)).schedule(any(Runnable.class), any(Trigger.class));
+        verify(dataAndCountFetchService, after(200).times(1)).getDataForSQLIdFromDatabase(eq(SQL_ID), anyMap());
+    }
+
+    @Test
+    void invalidCronIsNotRetriedWithoutDefinitionChange() {
+        definitionVersion(1L);
+        materialized("every five minutes");
+        refreshService.scheduleSnapshotRefresh();
+        refreshService.syncOnDefinitionChange();
+        refreshService.syncOnDefinitionChange();
+
+        verify(genericMapper, times(1)).selectMaterializedSQLIds();
+        verify(taskScheduler, never()).schedule(any(Runnable.class), any(Trigger.class));
+        verify(dataAndCountFetchService, after(200).never()).getDataForSQLIdFromDatabase(eq(SQL_ID), anyMap());
+    }
+
+    private void definitionVersion(Long version) {
+        when(tableVersionService.getTableVersion("PRE_DEFINED_SQL")).thenReturn(version);
+    }
+
+    private void materialized(String refreshCron) {
+        LinkedHashMap<String, Object> row = new LinkedHashMap<>();
+        row.put("SQL_ID", SQL_ID);
+        row.put("REFRESH_CRON", refreshCron);
+        when(genericMapper.selectMaterializedSQLIds()).thenReturn(Collections.<LinkedHashMap>singletonList(row));
+        when(genericMapper.getRefreshCronForActiveSQLId(SQL_ID)).thenReturn(refreshCron);
+    }
+
+    private void waitForSnapshot() {
+        long deadline = System.currentTimeMillis() + 1000;
+        while (null == sqlSnapshotStore.getSnapshot(SQL_ID, Collections.emptyMap()) && System.currentTimeMillis() < deadline) {
+            Thread.yield();
+        }
+        assertThat(sqlSnapshotStore.getSnapshot(SQL_ID, Collections.emptyMap())).isNotNull();
+    }
+
+}
@@ -0,0 +1,46 @@
+#!/usr/bin/env bash
+#
+#    Copyright 2015-2021 the original author or authors.
+#
+#    Licensed under the Apache License, Version 2.0 (the "License");
+#    you may not use this file except in compliance with the License.
+#    You may obtain a copy of the License at
+#
+#       http://www.apache.org/licenses/LICENSE-2.0
+#
+#    Unless required by applicable law or agreed to in writing, software
+#    distributed under the License is distributed on an "AS IS" BASIS,
+#    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+#    See the License for the specific language governing permissions and
+#    limitations under the License.
+#
+# Measures time from JVM start until the application is ready for traffic.
+# Every run starts the jar with the cds-training profile, which exits once ready.
+#
+#   ./startup-benchmark.sh [runs] [extra java options...]
+#
+# e.g. compare default startup with the prod profile and the AppCDS archive built by mvn -Pappcds package
+#   ./startup-benchmark.sh 5
+#   ./startup-benchmark.sh 5 -Dspring.profiles.active=prod,cds-training -XX:SharedArchiveFile=target/app-cds.jsa
+
+set -euo pipefail
+
+RUNS=${1:-5}
+shift || true
+JAR=${JAR:-$(ls target/rest-db-api-*.jar | grep -v -- '-exec.jar' | head -n 1)}
+JAVA_OPTS=("$@")
+if [ ${#JAVA_OPTS[@]} -eq 0 ]; then
+  JAVA_OPTS=(-Dspring.profiles.active=cds-training)
+fi
+
+total=0
+for run in $(seq 1 "$RUNS"); do
+  millis=$(java "${JAVA_OPTS[@]}" -jar "$JAR" 2>&1 | sed -n 's/.*Ready for traffic in \([0-9]*\) ms.*/\1/p')
+  if [ -z "$millis" ]; then
+    echo "run $run: application did not report ready" >&2
+    exit 1
+  fi
+  echo "run $run: $millis ms"
+  total=$((total + millis))
+done
+echo "average of $RUNS runs: $((total / RUNS)) ms"